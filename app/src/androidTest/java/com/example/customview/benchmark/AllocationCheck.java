@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.os.Debug;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Guards against allocations creeping into the widgets' measure, layout
+ * and draw passes, where they surface as GC pauses while scrolling.
+ *
+ * Each pass case, by default those from
+ * {@link WidgetBenchmarks#createPassCases()}, is warmed up so caches and
+ * lazily built state settle, then run repeatedly with allocation counting
+ * enabled. Any allocation on the calling thread during the counted runs
+ * is reported as a failure.
+ */
+public final class AllocationCheck {
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int CHECK_ITERATIONS = 200;
+
+    public static final class Result {
+        public final String name;
+        public final int iterations;
+        public final int allocations;
+        public final int allocatedBytes;
+
+        Result(String name, int iterations, int allocations, int allocatedBytes) {
+            this.name = name;
+            this.iterations = iterations;
+            this.allocations = allocations;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public boolean passed() {
+            return allocations == 0;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("iterations", iterations);
+            json.put("allocations", allocations);
+            json.put("allocatedBytes", allocatedBytes);
+            json.put("passed", passed());
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return (passed() ? "PASS " : "FAIL ") + name + ": " + allocations + " allocations ("
+                    + allocatedBytes + " bytes) in " + iterations + " runs";
+        }
+    }
+
+    private AllocationCheck() { }
+
+    public static List<Result> run(Context context) {
+        return run(context, WidgetBenchmarks.createPassCases());
+    }
+
+    public static List<Result> run(Context context, List<BenchmarkCase> cases) {
+        ArrayList<Result> results = new ArrayList<Result>(cases.size());
+        for (int i=0; i < cases.size(); i++) {
+            results.add(check(context, cases.get(i)));
+        }
+        return results;
+    }
+
+    public static boolean allPassed(List<Result> results) {
+        for (int i=0; i < results.size(); i++) {
+            if (!results.get(i).passed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Result check(Context context, BenchmarkCase benchmark) {
+        benchmark.setUp(context);
+        try {
+            for (int i=0; i < WARMUP_ITERATIONS; i++) {
+                benchmark.run();
+            }
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            for (int i=0; i < CHECK_ITERATIONS; i++) {
+                benchmark.run();
+            }
+            Debug.stopAllocCounting();
+
+            return new Result(benchmark.getName(), CHECK_ITERATIONS,
+                    Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+}
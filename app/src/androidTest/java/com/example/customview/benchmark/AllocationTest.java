@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.View;
+import android.view.ViewGroup;
+import com.example.customview.AspectImageActivity;
+import com.example.customview.widget.AspectImageView;
+import com.example.customview.widget.BitmapCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fails when a widget allocates during steady-state measure, layout,
+ * draw or scrolling. The image screen is checked while attached to its
+ * window, once its image sources have been decoded through the shared
+ * bitmap cache.
+ */
+public class AllocationTest extends ActivityInstrumentationTestCase2<AspectImageActivity> {
+
+    private static final long DECODE_TIMEOUT_MS = 10000;
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private List<AllocationCheck.Result> mResults;
+    private boolean mDecoded;
+    private boolean mCacheHit;
+
+    public AllocationTest() {
+        super(AspectImageActivity.class);
+    }
+
+    public void testWidgetPassesDoNotAllocate() {
+        final Context context = getInstrumentation().getTargetContext();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mResults = AllocationCheck.run(context);
+            }
+        });
+
+        assertNoAllocations(mResults);
+    }
+
+    public void testDecodedImageSourcesDoNotAllocate() throws InterruptedException {
+        final AspectImageActivity activity = getActivity();
+        final ViewGroup content = (ViewGroup) activity.findViewById(android.R.id.content);
+        final List<AspectImageView> images = new ArrayList<AspectImageView>();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                collectImages(content, images);
+            }
+        });
+        assertFalse("No image sources on screen", images.isEmpty());
+
+        waitForDecodes(images);
+
+        //The same source at the same size comes straight from the cache
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                AspectImageView image = images.get(0);
+                BitmapCache cache = BitmapCache.getInstance();
+                int hits = cache.hitCount();
+                image.setImageSource(image.getImageSource());
+                mCacheHit = cache.hitCount() == hits + 1 && image.getDrawable() != null;
+            }
+        });
+        assertTrue("Re-applying a decoded source did not hit the cache", mCacheHit);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mResults = AllocationCheck.run(activity,
+                        WidgetBenchmarks.createPassCases("AspectImageActivity", content.getChildAt(0)));
+            }
+        });
+
+        assertNoAllocations(mResults);
+    }
+
+    private void waitForDecodes(final List<AspectImageView> images) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + DECODE_TIMEOUT_MS;
+        while (true) {
+            getInstrumentation().waitForIdleSync();
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mDecoded = true;
+                    for (int i=0; i < images.size(); i++) {
+                        if (images.get(i).getDrawable() == null) {
+                            mDecoded = false;
+                        }
+                    }
+                }
+            });
+            if (mDecoded) {
+                return;
+            }
+            assertTrue("Image sources were not decoded in time", SystemClock.uptimeMillis() < deadline);
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    private static void collectImages(View view, List<AspectImageView> images) {
+        if (view instanceof AspectImageView) {
+            images.add((AspectImageView) view);
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i=0; i < group.getChildCount(); i++) {
+                collectImages(group.getChildAt(i), images);
+            }
+        }
+    }
+
+    private static void assertNoAllocations(List<AllocationCheck.Result> results) {
+        assertFalse("No passes were checked", results.isEmpty());
+        StringBuilder failures = new StringBuilder();
+        for (int i=0; i < results.size(); i++) {
+            AllocationCheck.Result result = results.get(i);
+            if (!result.passed()) {
+                failures.append('\n').append(result);
+            }
+        }
+        assertTrue("Allocations in steady state:" + failures, AllocationCheck.allPassed(results));
+    }
+}
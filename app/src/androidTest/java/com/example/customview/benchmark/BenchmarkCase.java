@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+
+/**
+ * A single operation to be timed by {@link BenchmarkRunner}. Fixtures are
+ * built in {@link #setUp(Context)}, which is not timed.
+ */
+public abstract class BenchmarkCase {
+
+    public static final int DEFAULT_ITERATIONS = 1000;
+
+    private final String mName;
+    private final int mIterations;
+
+    protected BenchmarkCase(String name) {
+        this(name, DEFAULT_ITERATIONS);
+    }
+
+    protected BenchmarkCase(String name, int iterations) {
+        mName = name;
+        mIterations = iterations;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+
+    public void setUp(Context context) { }
+
+    /**
+     * Perform the operation once
+     */
+    public abstract void run();
+
+    public void tearDown() { }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Runs {@link BenchmarkCase}s on the calling thread and reports their
+ * throughput and allocation rate.
+ *
+ * Each case is warmed up, then timed over its iteration count, then run
+ * again for the same count with allocation counting enabled. Counting
+ * slows allocation down, so it is kept out of the timed pass.
+ */
+public class BenchmarkRunner {
+
+    private static final int WARMUP_DIVISOR = 5;
+
+    public static final class Result {
+        public final String name;
+        public final int iterations;
+        public final long elapsedNanos;
+        public final int allocations;
+        public final int allocatedBytes;
+
+        Result(String name, int iterations, long elapsedNanos, int allocations, int allocatedBytes) {
+            this.name = name;
+            this.iterations = iterations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocations = allocations;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double getNanosPerOp() {
+            return (double) elapsedNanos / iterations;
+        }
+
+        public double getOpsPerSecond() {
+            return iterations * 1e9 / elapsedNanos;
+        }
+
+        public double getAllocationsPerOp() {
+            return (double) allocations / iterations;
+        }
+
+        public double getBytesPerOp() {
+            return (double) allocatedBytes / iterations;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("iterations", iterations);
+            json.put("nsPerOp", getNanosPerOp());
+            json.put("opsPerSecond", getOpsPerSecond());
+            json.put("allocationsPerOp", getAllocationsPerOp());
+            json.put("bytesPerOp", getBytesPerOp());
+            return json;
+        }
+    }
+
+    public Result run(Context context, BenchmarkCase benchmark) {
+        final int iterations = benchmark.getIterations();
+        benchmark.setUp(context);
+        try {
+            for (int i=0; i < iterations / WARMUP_DIVISOR; i++) {
+                benchmark.run();
+            }
+
+            long start = System.nanoTime();
+            for (int i=0; i < iterations; i++) {
+                benchmark.run();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            for (int i=0; i < iterations; i++) {
+                benchmark.run();
+            }
+            Debug.stopAllocCounting();
+
+            return new Result(benchmark.getName(), iterations, elapsed,
+                    Debug.getThreadAllocCount(), Debug.getThreadAllocSize());
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Machine-readable report of a run, identifying the device so results
+     * are only compared like for like
+     */
+    public static JSONObject toJson(List<Result> results) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("sdk", Build.VERSION.SDK_INT);
+        json.put("timestamp", System.currentTimeMillis());
+
+        JSONArray array = new JSONArray();
+        for (int i=0; i < results.size(); i++) {
+            array.put(results.get(i).toJson());
+        }
+        json.put("results", array);
+        return json;
+    }
+}
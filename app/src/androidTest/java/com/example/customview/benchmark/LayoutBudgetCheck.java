@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.DisplayMetrics;
+import android.view.LayoutInflater;
+import android.view.View;
+import com.example.customview.widget.ViewMetrics;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Guards against extra measure/layout/draw passes creeping into the demo
+ * layouts.
+ *
+ * Budgets are JSON, keyed by layout name and then by {@link ViewMetrics}
+ * timer name, giving the most calls that timer
+ * may record while the layout goes through a single measure, layout and
+ * draw at screen size. Inflation is not counted. Each budgeted layout is
+ * inflated detached from any window and driven through one frame with
+ * metrics enabled; every timer over budget is reported as a failure.
+ * Metrics collected before the check are restored afterward. Call from
+ * the main thread.
+ *
+ * Layouts are looked up in the given context, normally the app under
+ * test, while the budgets themselves ship with the test APK.
+ */
+public final class LayoutBudgetCheck {
+
+    public static final class Result {
+        public final String layout;
+        public final String timer;
+        public final long count;
+        public final long budget;
+
+        Result(String layout, String timer, long count, long budget) {
+            this.layout = layout;
+            this.timer = timer;
+            this.count = count;
+            this.budget = budget;
+        }
+
+        public boolean passed() {
+            return count <= budget;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("layout", layout);
+            json.put("timer", timer);
+            json.put("count", count);
+            json.put("budget", budget);
+            json.put("passed", passed());
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return (passed() ? "PASS " : "FAIL ") + layout + " " + timer + ": " + count + " (budget " + budget + ")";
+        }
+    }
+
+    private LayoutBudgetCheck() { }
+
+    /**
+     * Checks every layout in budgets against the app resources of context.
+     * The budgets stream is closed before returning.
+     */
+    public static List<Result> run(Context context, InputStream budgetsIn)
+            throws IOException, JSONException {
+        JSONObject budgets = new JSONObject(readBudgets(budgetsIn));
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(metrics.widthPixels, View.MeasureSpec.EXACTLY);
+        int heightSpec = View.MeasureSpec.makeMeasureSpec(metrics.heightPixels, View.MeasureSpec.EXACTLY);
+        Bitmap bitmap = Bitmap.createBitmap(metrics.widthPixels, metrics.heightPixels, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        boolean wasEnabled = ViewMetrics.isEnabled();
+        //Counts start from zero for each layout; keep what was collected so far
+        List<ViewMetrics.Snapshot> saved = ViewMetrics.snapshot();
+        try {
+            Iterator<?> layouts = budgets.keys();
+            while (layouts.hasNext()) {
+                String layout = (String) layouts.next();
+                int layoutId = context.getResources().getIdentifier(layout, "layout", context.getPackageName());
+                if (layoutId == 0) {
+                    throw new IllegalArgumentException("Budget for unknown layout " + layout);
+                }
+
+                View root = LayoutInflater.from(context).inflate(layoutId, null);
+                ViewMetrics.reset();
+                ViewMetrics.setEnabled(true);
+                root.measure(widthSpec, heightSpec);
+                root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+                root.draw(canvas);
+                ViewMetrics.setEnabled(false);
+
+                collect(layout, budgets.getJSONObject(layout), ViewMetrics.snapshot(), results);
+            }
+        } finally {
+            ViewMetrics.restore(saved);
+            ViewMetrics.setEnabled(wasEnabled);
+            bitmap.recycle();
+        }
+        return results;
+    }
+
+    public static boolean allPassed(List<Result> results) {
+        for (int i=0; i < results.size(); i++) {
+            if (!results.get(i).passed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collect(String layout, JSONObject layoutBudgets,
+                                List<ViewMetrics.Snapshot> snapshots, List<Result> results)
+            throws JSONException {
+        Iterator<?> timers = layoutBudgets.keys();
+        while (timers.hasNext()) {
+            String timer = (String) timers.next();
+            long count = -1;
+            for (int i=0; i < snapshots.size(); i++) {
+                if (snapshots.get(i).name.equals(timer)) {
+                    count = snapshots.get(i).count;
+                    break;
+                }
+            }
+            if (count < 0) {
+                throw new IllegalArgumentException("Budget for unknown timer " + timer);
+            }
+            results.add(new Result(layout, timer, count, layoutBudgets.getInt(timer)));
+        }
+    }
+
+    private static String readBudgets(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
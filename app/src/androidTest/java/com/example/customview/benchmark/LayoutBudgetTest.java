@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import java.util.List;
+
+/**
+ * Fails when any demo layout exceeds a pass budget from
+ * assets/layout_budgets.json in the test APK.
+ */
+public class LayoutBudgetTest extends InstrumentationTestCase {
+
+    private static final String BUDGETS_ASSET = "layout_budgets.json";
+
+    private List<LayoutBudgetCheck.Result> mResults;
+    private Exception mError;
+
+    public void testDemoLayoutsMeetPassBudgets() {
+        final Context context = getInstrumentation().getTargetContext();
+        final Context testContext = getInstrumentation().getContext();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mResults = LayoutBudgetCheck.run(context,
+                            testContext.getAssets().open(BUDGETS_ASSET));
+                } catch (Exception e) {
+                    mError = e;
+                }
+            }
+        });
+        if (mError != null) {
+            throw new AssertionError(mError);
+        }
+
+        assertFalse("No layout budgets were checked", mResults.isEmpty());
+        StringBuilder failures = new StringBuilder();
+        for (int i=0; i < mResults.size(); i++) {
+            LayoutBudgetCheck.Result result = mResults.get(i);
+            if (!result.passed()) {
+                failures.append('\n').append(result);
+            }
+        }
+        assertTrue("Layout budgets exceeded:" + failures, LayoutBudgetCheck.allPassed(mResults));
+    }
+}
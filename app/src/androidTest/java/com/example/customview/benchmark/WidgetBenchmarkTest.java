@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import com.example.customview.AspectImageActivity;
+import com.example.customview.BoxGridActivity;
+import com.example.customview.CompoundControlActivity;
+import com.example.customview.DoubleImageActivity;
+import com.example.customview.StartupTimer;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the widget benchmark suite on the main thread of the app under
+ * test. Each demo screen is opened once first so its startup timing is
+ * recorded. Results, along with those timings, are written as JSON to the
+ * app's external files directory (and to the log) for comparison between
+ * builds. Layout pass budgets and steady-state allocations are checked by
+ * {@link LayoutBudgetTest} and {@link AllocationTest}.
+ */
+public class WidgetBenchmarkTest extends InstrumentationTestCase {
+
+    private static final String TAG = "WidgetBenchmarks";
+    private static final Class<?>[] SCREENS = {AspectImageActivity.class, CompoundControlActivity.class,
+            DoubleImageActivity.class, BoxGridActivity.class};
+
+    private BenchmarkRunner.Result mResult;
+
+    public void testWidgetBenchmarks() throws Exception {
+        final Context context = getInstrumentation().getTargetContext();
+        for (int i=0; i < SCREENS.length; i++) {
+            @SuppressWarnings("unchecked")
+            Class<Activity> screen = (Class<Activity>) SCREENS[i];
+            Activity activity = launchActivity(context.getPackageName(), screen, null);
+            getInstrumentation().waitForIdleSync();
+            activity.finish();
+        }
+
+        final BenchmarkRunner runner = new BenchmarkRunner();
+        List<BenchmarkCase> cases = WidgetBenchmarks.createCases();
+        List<BenchmarkRunner.Result> results = new ArrayList<BenchmarkRunner.Result>(cases.size());
+        for (int i=0; i < cases.size(); i++) {
+            //One case per main thread turn, so the app stays responsive between cases
+            final BenchmarkCase benchmark = cases.get(i);
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mResult = runner.run(context, benchmark);
+                }
+            });
+            results.add(mResult);
+            Log.i(TAG, String.format("%s: %.0f ns/op, %.1f allocs/op",
+                    mResult.name, mResult.getNanosPerOp(), mResult.getAllocationsPerOp()));
+        }
+
+        JSONObject report = BenchmarkRunner.toJson(results);
+        report.put("startup", StartupTimer.toJson());
+        String json = report.toString(2);
+        Log.i(TAG, json);
+
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+        File file = new File(dir, "benchmark-" + System.currentTimeMillis() + ".json");
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+        Log.i(TAG, "Results written to " + file.getPath());
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import com.example.customview.R;
+import com.example.customview.widget.AspectImageView;
+import com.example.customview.widget.BoxGridLayout;
+import com.example.customview.widget.DoubleImageView;
+import com.example.customview.widget.EntryFormView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure, layout and draw benchmarks for each widget, plus creation of
+ * {@link EntryFormView} by inflation and by its programmatic path.
+ */
+public final class WidgetBenchmarks {
+
+    private static final int OP_MEASURE = 0;
+    private static final int OP_LAYOUT = 1;
+    private static final int OP_DRAW = 2;
+    private static final String[] OP_NAMES = {"measure", "layout", "draw"};
+
+    private static final int[] GRID_COLUMNS = {2, 3, 4};
+    //App layouts whose outermost grid has each column count, or 0 for the default
+    private static final int[] GRID_LAYOUTS = {R.layout.box, 0, R.layout.box_small};
+    private static final int CREATE_ITERATIONS = 200;
+
+    private WidgetBenchmarks() { }
+
+    public static List<BenchmarkCase> createCases() {
+        List<BenchmarkCase> cases = createPassCases();
+        addCreationCases(cases);
+        return cases;
+    }
+
+    /**
+     * The measure, layout and draw case of each widget, without creation
+     */
+    public static List<BenchmarkCase> createPassCases() {
+        ArrayList<BenchmarkCase> cases = new ArrayList<BenchmarkCase>();
+
+        addPassCases(cases, "AspectImageView", new ViewFixture() {
+            @Override
+            View create(Context context) {
+                AspectImageView view = new AspectImageView(context);
+                view.setImageResource(R.drawable.android1);
+                return view;
+            }
+
+            @Override
+            int getHeightSpec(int screenWidth) {
+                return View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+            }
+        });
+
+        addPassCases(cases, "DoubleImageView", new DoubleImageFixture(false));
+        //Only drawing changes when the content is served from the cache bitmap
+        cases.add(new ViewPassCase("DoubleImageView[contentCache]." + OP_NAMES[OP_DRAW],
+                new DoubleImageFixture(true), OP_DRAW));
+
+        for (int g=0; g < GRID_COLUMNS.length; g++) {
+            final int columns = GRID_COLUMNS[g];
+            final int gridLayout = GRID_LAYOUTS[g];
+            addPassCases(cases, "BoxGridLayout[numColumns=" + columns + "]", new ViewFixture() {
+                @Override
+                View create(Context context) {
+                    BoxGridLayout grid = createGrid(context, gridLayout);
+                    for (int i=0; i < columns * columns; i++) {
+                        View cell = new View(context);
+                        cell.setBackgroundDrawable(new ColorDrawable((i % 2 == 0) ? Color.GRAY : Color.DKGRAY));
+                        grid.addView(cell);
+                    }
+                    return grid;
+                }
+            });
+        }
+
+        cases.add(new GridScrollCase("BoxGridLayout[adapter].scroll"));
+
+        return cases;
+    }
+
+    /*
+     * The column count is only settable from XML, and test APK layouts
+     * cannot use the app's attributes, so grids other than the default
+     * come from the demo layouts with their children cleared. Separator
+     * widths differ between them, as in the demo.
+     */
+    private static BoxGridLayout createGrid(Context context, int layout) {
+        if (layout == 0) {
+            return new BoxGridLayout(context);
+        }
+        View root = LayoutInflater.from(context).inflate(layout, null);
+        BoxGridLayout grid;
+        if (root instanceof BoxGridLayout) {
+            grid = (BoxGridLayout) root;
+        } else {
+            ViewGroup parent = (ViewGroup) root;
+            grid = (BoxGridLayout) parent.getChildAt(0);
+            parent.removeView(grid);
+        }
+        grid.removeAllViews();
+        return grid;
+    }
+
+    /**
+     * The measure, layout and draw case of a view that is already laid
+     * out, such as the content of an activity window, at its current size
+     */
+    public static List<BenchmarkCase> createPassCases(String name, final View view) {
+        ArrayList<BenchmarkCase> cases = new ArrayList<BenchmarkCase>();
+        addPassCases(cases, name, new ViewFixture() {
+            @Override
+            View create(Context context) {
+                return view;
+            }
+
+            @Override
+            int getWidthSpec(int screenWidth) {
+                return View.MeasureSpec.makeMeasureSpec(view.getWidth(), View.MeasureSpec.EXACTLY);
+            }
+
+            @Override
+            int getHeightSpec(int screenWidth) {
+                return View.MeasureSpec.makeMeasureSpec(view.getHeight(), View.MeasureSpec.EXACTLY);
+            }
+        });
+        return cases;
+    }
+
+    private static void addCreationCases(List<BenchmarkCase> cases) {
+        cases.add(new BenchmarkCase("EntryFormView.inflate", CREATE_ITERATIONS) {
+            private Context mContext;
+
+            @Override
+            public void setUp(Context context) {
+                mContext = context;
+            }
+
+            @Override
+            public void run() {
+                new EntryFormView(mContext);
+            }
+        });
+
+        cases.add(new BenchmarkCase("EntryFormView.create", CREATE_ITERATIONS) {
+            private Context mContext;
+
+            @Override
+            public void setUp(Context context) {
+                mContext = context;
+            }
+
+            @Override
+            public void run() {
+                EntryFormView.create(mContext);
+            }
+        });
+    }
+
+    private static void addPassCases(List<BenchmarkCase> cases, String widget, ViewFixture fixture) {
+        for (int op=OP_MEASURE; op <= OP_DRAW; op++) {
+            cases.add(new ViewPassCase(widget + "." + OP_NAMES[op], fixture, op));
+        }
+    }
+
+    /*
+     * Builds the view under test and the specs it is measured with,
+     * sized relative to the screen so results scale like real layouts.
+     */
+    private static abstract class ViewFixture {
+        abstract View create(Context context);
+
+        int getWidthSpec(int screenWidth) {
+            return View.MeasureSpec.makeMeasureSpec(screenWidth, View.MeasureSpec.EXACTLY);
+        }
+
+        int getHeightSpec(int screenWidth) {
+            return View.MeasureSpec.makeMeasureSpec(screenWidth, View.MeasureSpec.EXACTLY);
+        }
+    }
+
+    private static class DoubleImageFixture extends ViewFixture {
+        private final boolean mContentCache;
+
+        DoubleImageFixture(boolean contentCache) {
+            mContentCache = contentCache;
+        }
+
+        @Override
+        View create(Context context) {
+            DoubleImageView view = new DoubleImageView(context);
+            view.beginUpdate();
+            view.setLeftDrawableResource(R.drawable.flag_us);
+            view.setRightDrawableResource(R.drawable.flag_uk);
+            view.setTextColor(Color.WHITE);
+            view.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 32,
+                    context.getResources().getDisplayMetrics()));
+            view.setText("5 - 5");
+            view.commit();
+            view.setContentCacheEnabled(mContentCache);
+            return view;
+        }
+
+        @Override
+        int getWidthSpec(int screenWidth) {
+            return View.MeasureSpec.makeMeasureSpec(screenWidth, View.MeasureSpec.AT_MOST);
+        }
+
+        @Override
+        int getHeightSpec(int screenWidth) {
+            return View.MeasureSpec.makeMeasureSpec(screenWidth, View.MeasureSpec.AT_MOST);
+        }
+    }
+
+    private static class ViewPassCase extends BenchmarkCase {
+        private final ViewFixture mFixture;
+        private final int mOp;
+
+        private View mView;
+        private int mWidthSpec, mHeightSpec;
+        private Bitmap mBitmap;
+        private Canvas mCanvas;
+        private boolean mOffset;
+
+        ViewPassCase(String name, ViewFixture fixture, int op) {
+            super(name);
+            mFixture = fixture;
+            mOp = op;
+        }
+
+        @Override
+        public void setUp(Context context) {
+            int screenWidth = context.getResources().getDisplayMetrics().widthPixels;
+            mView = mFixture.create(context);
+            mWidthSpec = mFixture.getWidthSpec(screenWidth);
+            mHeightSpec = mFixture.getHeightSpec(screenWidth);
+
+            mView.measure(mWidthSpec, mHeightSpec);
+            int width = Math.max(1, mView.getMeasuredWidth());
+            int height = Math.max(1, mView.getMeasuredHeight());
+            mView.layout(0, 0, width, height);
+
+            if (mOp == OP_DRAW) {
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mCanvas = new Canvas(mBitmap);
+            }
+        }
+
+        @Override
+        public void run() {
+            switch (mOp) {
+                case OP_MEASURE:
+                    //A forced measure, as when an ancestor requests layout
+                    mView.forceLayout();
+                    mView.measure(mWidthSpec, mHeightSpec);
+                    break;
+                case OP_LAYOUT:
+                    //Alternate the position so each call re-runs onLayout()
+                    mOffset = !mOffset;
+                    int offset = mOffset ? 1 : 0;
+                    mView.layout(offset, offset,
+                            offset + mView.getWidth(), offset + mView.getHeight());
+                    break;
+                case OP_DRAW:
+                    mView.draw(mCanvas);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void tearDown() {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+                mBitmap = null;
+                mCanvas = null;
+            }
+            mView = null;
+        }
+    }
+
+    /*
+     * Scrolls an adapter-backed grid down a few screens and back, a
+     * fraction of a row per run, so cells keep moving through the scrap
+     * pool and being rebound.
+     */
+    private static class GridScrollCase extends BenchmarkCase {
+        private static final int CELL_COUNT = 900;
+        private static final int SCROLL_SCREENS = 4;
+        private static final int STEPS_PER_SCREEN = 5;
+
+        private BoxGridLayout mGrid;
+        private int mStep, mMaxScroll;
+
+        GridScrollCase(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setUp(Context context) {
+            int screenWidth = context.getResources().getDisplayMetrics().widthPixels;
+            mGrid = new BoxGridLayout(context);
+            mGrid.setAdapter(new CellAdapter(CELL_COUNT));
+
+            int spec = View.MeasureSpec.makeMeasureSpec(screenWidth, View.MeasureSpec.EXACTLY);
+            mGrid.measure(spec, spec);
+            mGrid.layout(0, 0, mGrid.getMeasuredWidth(), mGrid.getMeasuredHeight());
+
+            mStep = Math.max(1, mGrid.getHeight() / STEPS_PER_SCREEN);
+            mMaxScroll = mGrid.getHeight() * SCROLL_SCREENS;
+        }
+
+        @Override
+        public void run() {
+            int y = mGrid.getScrollY() + mStep;
+            if (y < 0 || y > mMaxScroll) {
+                //Turn around at either end
+                mStep = -mStep;
+                y = mGrid.getScrollY() + mStep;
+            }
+            mGrid.scrollTo(0, y);
+        }
+
+        @Override
+        public void tearDown() {
+            mGrid = null;
+        }
+    }
+
+    /*
+     * Plain colored cells, rebound in place when the grid offers a scrap view
+     */
+    private static class CellAdapter extends BaseAdapter {
+        private final int mCount;
+
+        CellAdapter(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View cell = convertView;
+            if (cell == null) {
+                cell = new View(parent.getContext());
+            }
+            cell.setBackgroundColor((position % 2 == 0) ? Color.GRAY : Color.DKGRAY);
+            return cell;
+        }
+    }
+}
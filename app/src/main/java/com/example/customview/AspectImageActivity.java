@@ -28,7 +28,8 @@ import android.os.Bundle;
 public class AspectImageActivity extends Activity {
 
     public void onCreate(Bundle savedInstanceState) {
+        StartupTimer.onCreate(this);
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.aspect);
+        LayoutPreloader.setContentView(this, R.layout.aspect);
     }
 }
\ No newline at end of file
@@ -28,7 +28,8 @@ import android.os.Bundle;
 public class BoxGridActivity extends Activity {
 
     public void onCreate(Bundle savedInstanceState) {
+        StartupTimer.onCreate(this);
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.box);
+        LayoutPreloader.setContentView(this, R.layout.box);
     }
 }
\ No newline at end of file
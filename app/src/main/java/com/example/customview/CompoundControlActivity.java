@@ -24,29 +24,171 @@ package com.example.customview;
 
 import android.app.Activity;
 import android.os.Bundle;
-import android.widget.ArrayAdapter;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
 import android.widget.ListView;
 import com.example.customview.widget.EntryFormView;
 
-public class CompoundControlActivity extends Activity implements EntryFormView.OnEntrySubmittedListener{
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
-    private ArrayAdapter<String> mAdapter;
+public class CompoundControlActivity extends Activity implements EntryFormView.OnEntrySubmittedListener,
+        EntryFormView.OnEntriesSubmittedListener, EntryLog.OnPageLoadedListener,
+        EntryIndex.OnSearchResultsListener, TextWatcher {
+
+    //Oldest entries are dropped beyond this many
+    private static final int MAX_ENTRIES = 1000;
+    private static final int LOAD_PAGE_SIZE = 100;
+    private static final String LOG_FILE = "entries.log";
+
+    //Shared across recreation so two instances never write the file at once
+    private static EntryLog sLog;
+
+    private EntryAdapter mAdapter;
+    private EntryLog mLog;
+    private EntryLog.Load mLoad;
+    private EntryIndex mIndex;
+    private EditText mSearchText;
+    //Entries submitted before the log finished loading, added after it
+    private ArrayList<EntryFormView.Entry> mHeldEntries;
+
+    private static synchronized EntryLog getEntryLog(Context context) {
+        if (sLog == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sLog = new EntryLog(new File(context.getFilesDir(), LOG_FILE), MAX_ENTRIES, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            });
+        }
+        return sLog;
+    }
 
     public void onCreate(Bundle savedInstanceState) {
+        StartupTimer.onCreate(this);
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.compound);
+        LayoutPreloader.setContentView(this, R.layout.compound);
 
-        mAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
+        mAdapter = new EntryAdapter(this, new EntryStore(MAX_ENTRIES));
         ListView list = (ListView) findViewById(R.id.list);
         list.setAdapter(mAdapter);
 
         EntryFormView entryView = (EntryFormView) findViewById(R.id.entry_view);
         entryView.setOnEntrySubmittedListener(this);
+        entryView.setOnEntriesSubmittedListener(this);
+
+        mSearchText = (EditText) findViewById(R.id.search_text);
+        mSearchText.addTextChangedListener(this);
+
+        final Handler handler = new Handler();
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+        mIndex = new EntryIndex(MAX_ENTRIES, mainExecutor);
+
+        //Restore previous entries, streamed in page by page
+        mHeldEntries = new ArrayList<EntryFormView.Entry>();
+        mLog = getEntryLog(this);
+        mLoad = mLog.load(LOAD_PAGE_SIZE, this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //The log outlives us; stop it calling back into this instance
+        mLoad.cancel();
+        if (mHeldEntries != null) {
+            //Still persist what was submitted; it lands after the loaded entries
+            for (int i=0; i < mHeldEntries.size(); i++) {
+                EntryFormView.Entry entry = mHeldEntries.get(i);
+                mLog.append(entry.name, entry.email);
+            }
+            mHeldEntries = null;
+        }
+        mIndex.close();
+    }
+
+    @Override
+    public void onPageLoaded(String[] names, String[] emails, int count) {
+        long id = mAdapter.addAll(names, emails, count);
+        for (int i=0; i < count; i++) {
+            mIndex.add(id + i, names[i], emails[i]);
+        }
+        refreshSearch();
+    }
+
+    @Override
+    public void onLoadFinished() {
+        List<EntryFormView.Entry> held = mHeldEntries;
+        mHeldEntries = null;
+        if (!held.isEmpty()) {
+            onEntriesSubmitted(held);
+        }
     }
 
     @Override
     public void onEntrySubmitted(CharSequence name, CharSequence email) {
-        mAdapter.add(name + ", " + email);
-        mAdapter.notifyDataSetChanged();
+        if (mHeldEntries != null) {
+            //Keep ids in order behind the entries still loading
+            mHeldEntries.add(new EntryFormView.Entry(name, email));
+            return;
+        }
+        long id = mAdapter.add(name, email);
+        mIndex.add(id, name, email);
+        mLog.append(name, email);
+        refreshSearch();
+    }
+
+    @Override
+    public void onEntriesSubmitted(List<EntryFormView.Entry> entries) {
+        if (mHeldEntries != null) {
+            mHeldEntries.addAll(entries);
+            return;
+        }
+        long id = mAdapter.addAll(entries);
+        for (int i=0; i < entries.size(); i++) {
+            EntryFormView.Entry entry = entries.get(i);
+            mIndex.add(id + i, entry.name, entry.email);
+            mLog.append(entry.name, entry.email);
+        }
+        refreshSearch();
+    }
+
+    /* Search */
+
+    private void refreshSearch() {
+        CharSequence query = mSearchText.getText();
+        if (EntryIndex.isEmptyQuery(query)) {
+            mIndex.cancelQuery();
+            mAdapter.clearFilter();
+        } else {
+            mIndex.query(query, this);
+        }
+    }
+
+    @Override
+    public void onSearchResults(long[] ids, int count) {
+        mAdapter.setFilter(ids, count);
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        refreshSearch();
     }
 }
\ No newline at end of file
@@ -28,7 +28,8 @@ import android.os.Bundle;
 public class DoubleImageActivity extends Activity {
 
     public void onCreate(Bundle savedInstanceState) {
+        StartupTimer.onCreate(this);
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.double_image);
+        LayoutPreloader.setContentView(this, R.layout.double_image);
     }
 }
\ No newline at end of file
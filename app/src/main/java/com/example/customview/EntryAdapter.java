@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+import com.example.customview.widget.EntryFormView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * List adapter over an {@link EntryStore}. Rows are formatted only when
+ * they are bound, so entries that never scroll into view cost nothing
+ * beyond their stored fields. Ids are stable per entry, letting the list
+ * keep its position and views as entries are appended or evicted.
+ *
+ * Added entries are staged and applied to the store together on the next
+ * main loop pass, with a single change notification, so any number of adds
+ * within a frame cause one rebind. The store only changes at that point,
+ * keeping the count the list sees in step with its notifications.
+ *
+ * A filter restricts the list to a set of entry ids, such as search
+ * results from {@link EntryIndex}.
+ */
+public class EntryAdapter extends BaseAdapter {
+
+    private final LayoutInflater mInflater;
+    private final EntryStore mStore;
+    private final Handler mHandler;
+    /* Staged Adds */
+    private final ArrayList<String> mPendingNames = new ArrayList<String>();
+    private final ArrayList<String> mPendingEmails = new ArrayList<String>();
+    private boolean mNotifyScheduled;
+    /* Filter */
+    private long[] mFilterIds;
+    private int mFilterCount;
+    //Leading filtered ids already applied to the store; the rest are staged
+    private int mFilterAppliedCount;
+
+    public EntryAdapter(Context context, EntryStore store) {
+        mInflater = LayoutInflater.from(context);
+        mStore = store;
+        mHandler = new Handler();
+    }
+
+    public EntryStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * Append an entry, returning the id it will have in the store
+     */
+    public long add(CharSequence name, CharSequence email) {
+        long id = stage(name, email);
+        scheduleNotify();
+        return id;
+    }
+
+    /**
+     * Append count entries from parallel arrays, returning the id of the
+     * first; the rest follow consecutively
+     */
+    public long addAll(String[] names, String[] emails, int count) {
+        long firstId = getNextId();
+        for (int i=0; i < count; i++) {
+            stage(names[i], emails[i]);
+        }
+        scheduleNotify();
+        return firstId;
+    }
+
+    /**
+     * Append entries, returning the id of the first; the rest follow
+     * consecutively
+     */
+    public long addAll(List<EntryFormView.Entry> entries) {
+        long firstId = getNextId();
+        for (int i=0; i < entries.size(); i++) {
+            EntryFormView.Entry entry = entries.get(i);
+            stage(entry.name, entry.email);
+        }
+        scheduleNotify();
+        return firstId;
+    }
+
+    private long getNextId() {
+        return mStore.getAddedCount() + mPendingNames.size();
+    }
+
+    private long stage(CharSequence name, CharSequence email) {
+        long id = getNextId();
+        mPendingNames.add((name == null) ? "" : name.toString());
+        mPendingEmails.add((email == null) ? "" : email.toString());
+        return id;
+    }
+
+    /**
+     * Show only the entries with the given ids, in ascending order. The
+     * adapter takes ownership of the array.
+     */
+    public void setFilter(long[] ids, int count) {
+        mFilterIds = ids;
+        mFilterCount = count;
+        pruneFilter();
+        notifyDataSetChanged();
+    }
+
+    public void clearFilter() {
+        if (mFilterIds != null) {
+            mFilterIds = null;
+            mFilterCount = 0;
+            mFilterAppliedCount = 0;
+            notifyDataSetChanged();
+        }
+    }
+
+    public boolean isFiltered() {
+        return mFilterIds != null;
+    }
+
+    /*
+     * Drop filtered ids that were evicted from the store. Ids that are
+     * staged but not applied yet stay, since search results can arrive
+     * before the coalesced apply; they are only shown once applied. Ids
+     * ascend and staged ids are the newest, so shown ids are a prefix.
+     */
+    private void pruneFilter() {
+        if (mFilterIds == null) {
+            return;
+        }
+        final long appliedCount = mStore.getAddedCount();
+        final long nextId = getNextId();
+        int n = 0;
+        int applied = 0;
+        for (int i=0; i < mFilterCount; i++) {
+            long id = mFilterIds[i];
+            if (id < appliedCount) {
+                if (mStore.getPosition(id) >= 0) {
+                    mFilterIds[n++] = id;
+                    applied++;
+                }
+            } else if (id < nextId) {
+                mFilterIds[n++] = id;
+            }
+        }
+        mFilterCount = n;
+        mFilterAppliedCount = applied;
+    }
+
+    private int getStorePosition(int position) {
+        return (mFilterIds == null) ? position : mStore.getPosition(mFilterIds[position]);
+    }
+
+    private void scheduleNotify() {
+        if (!mNotifyScheduled) {
+            mNotifyScheduled = true;
+            mHandler.post(mApplyPending);
+        }
+    }
+
+    private final Runnable mApplyPending = new Runnable() {
+        @Override
+        public void run() {
+            mNotifyScheduled = false;
+            final int count = mPendingNames.size();
+            for (int i=0; i < count; i++) {
+                mStore.add(mPendingNames.get(i), mPendingEmails.get(i));
+            }
+            mPendingNames.clear();
+            mPendingEmails.clear();
+            pruneFilter();
+
+            notifyDataSetChanged();
+        }
+    };
+
+    @Override
+    public int getCount() {
+        return (mFilterIds == null) ? mStore.size() : mFilterAppliedCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return formatEntry(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return (mFilterIds == null) ? mStore.getId(position) : mFilterIds[position];
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view;
+        if (convertView == null) {
+            view = (TextView) mInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        } else {
+            view = (TextView) convertView;
+        }
+        view.setText(formatEntry(position));
+
+        return view;
+    }
+
+    private String formatEntry(int position) {
+        int storePosition = getStorePosition(position);
+        return mStore.getName(storePosition) + ", " + mStore.getEmail(storePosition);
+    }
+}
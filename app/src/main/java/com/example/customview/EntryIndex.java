@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incrementally maintained prefix index over entry names and emails.
+ *
+ * Each entry is split into lowercase word tokens (plus its whole email),
+ * held as a sorted array of token/id postings. New postings collect in a
+ * small unsorted tail that is merged into the sorted run once full, so
+ * adding stays cheap while a lookup is a binary search plus a short scan.
+ *
+ * The index is owned by a single worker thread: adds and queries are both
+ * queued to it, so updates never block the caller and queries always see
+ * every entry added before them. Starting a query cancels any earlier one
+ * still in flight, and only the latest query's results are published.
+ */
+public class EntryIndex {
+
+    public interface OnSearchResultsListener {
+        /**
+         * Ids of the entries matching the latest query, in ascending order.
+         * The array is owned by the receiver.
+         */
+        public void onSearchResults(long[] ids, int count);
+    }
+
+    private static final int TAIL_SIZE = 512;
+    private static final int MAX_RESULTS = 1000;
+    //How often a running query checks whether it has been superseded
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private final int mCapacity;
+    private final Executor mCallbackExecutor;
+    private final ExecutorService mWorker;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /* Worker thread state */
+    private String[] mTokens = new String[0];
+    private long[] mTokenIds = new long[0];
+    private int mSize;
+    private final Posting[] mTail = new Posting[TAIL_SIZE];
+    private int mTailSize;
+    private long mMaxId = -1;
+    private long[] mScratch = new long[64];
+    private int mScratchSize;
+
+    /**
+     * @param capacity Number of newest entries that stay searchable, matching
+     *                 the store's capacity, or {@link EntryStore#UNBOUNDED}
+     * @param callbackExecutor Executor for results, typically the main thread
+     */
+    public EntryIndex(int capacity, Executor callbackExecutor) {
+        mCapacity = capacity;
+        mCallbackExecutor = callbackExecutor;
+        mWorker = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Index an entry. Ids must increase with each entry added, as the
+     * ids handed out by {@link EntryStore} do.
+     */
+    public void add(final long id, CharSequence name, CharSequence email) {
+        final String nameValue = (name == null) ? "" : name.toString();
+        final String emailValue = (email == null) ? "" : email.toString();
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                indexEntry(id, nameValue, emailValue);
+            }
+        });
+    }
+
+    /**
+     * True if the text has no words to search for, e.g. it is blank or
+     * only punctuation. Such a query matches every entry, so callers
+     * should show everything rather than run it.
+     */
+    public static boolean isEmptyQuery(CharSequence text) {
+        for (int i=0; i < text.length(); i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find entries where every word of the query prefixes a word of the
+     * entry's name or email. Supersedes any query still running. See
+     * {@link #isEmptyQuery(CharSequence)}.
+     */
+    public void query(CharSequence text, final OnSearchResultsListener listener) {
+        final String query = text.toString();
+        final int generation = mGeneration.incrementAndGet();
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                runQuery(query, generation, listener);
+            }
+        });
+    }
+
+    /**
+     * Drop any query in flight without publishing its results
+     */
+    public void cancelQuery() {
+        mGeneration.incrementAndGet();
+    }
+
+    public void close() {
+        cancelQuery();
+        mWorker.shutdown();
+    }
+
+    /* Worker thread only below */
+
+    private void indexEntry(long id, String name, String email) {
+        mMaxId = Math.max(mMaxId, id);
+
+        ArrayList<String> tokens = new ArrayList<String>();
+        tokenize(name, tokens);
+        tokenize(email, tokens);
+        String wholeEmail = email.toLowerCase(Locale.US);
+        if (wholeEmail.length() > 0 && !tokens.contains(wholeEmail)) {
+            tokens.add(wholeEmail);
+        }
+
+        for (int i=0; i < tokens.size(); i++) {
+            if (mTailSize == TAIL_SIZE) {
+                mergeTail();
+            }
+            mTail[mTailSize++] = new Posting(tokens.get(i), id);
+        }
+    }
+
+    private static void tokenize(String text, ArrayList<String> out) {
+        String lower = text.toLowerCase(Locale.US);
+        int start = -1;
+        for (int i=0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                out.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    private long getMinLiveId() {
+        return (mCapacity == EntryStore.UNBOUNDED) ? 0 : mMaxId - mCapacity + 1;
+    }
+
+    /*
+     * Sort the tail and merge it into the sorted run, dropping postings
+     * for entries that have since been evicted from the store. The run's
+     * arrays grow geometrically and are merged into from the back, so
+     * most merges allocate nothing.
+     */
+    private void mergeTail() {
+        Arrays.sort(mTail, 0, mTailSize, POSTING_ORDER);
+
+        final int total = mSize + mTailSize;
+        if (mTokens.length < total) {
+            int capacity = Math.max(total, mTokens.length * 2);
+            mTokens = Arrays.copyOf(mTokens, capacity);
+            mTokenIds = Arrays.copyOf(mTokenIds, capacity);
+        }
+
+        int i = mSize - 1, j = mTailSize - 1, k = total - 1;
+        while (j >= 0) {
+            if (i >= 0 && mTokens[i].compareTo(mTail[j].token) > 0) {
+                mTokens[k] = mTokens[i];
+                mTokenIds[k--] = mTokenIds[i--];
+            } else {
+                mTokens[k] = mTail[j].token;
+                mTokenIds[k--] = mTail[j].id;
+                mTail[j--] = null;
+            }
+        }
+
+        long minLive = getMinLiveId();
+        int n = 0;
+        for (int p=0; p < total; p++) {
+            if (mTokenIds[p] >= minLive) {
+                mTokens[n] = mTokens[p];
+                mTokenIds[n++] = mTokenIds[p];
+            }
+        }
+        //Let dropped tokens be collected
+        Arrays.fill(mTokens, n, total, null);
+
+        mSize = n;
+        mTailSize = 0;
+    }
+
+    private void runQuery(String query, int generation, OnSearchResultsListener listener) {
+        if (generation != mGeneration.get()) {
+            return;
+        }
+
+        ArrayList<String> terms = new ArrayList<String>();
+        tokenize(query, terms);
+
+        long[] matches = null;
+        int matchCount = 0;
+        for (int t=0; t < terms.size(); t++) {
+            if (!collect(terms.get(t), generation)) {
+                return;
+            }
+            if (matches == null) {
+                matches = Arrays.copyOf(mScratch, mScratchSize);
+                matchCount = mScratchSize;
+            } else {
+                matchCount = intersect(matches, matchCount, mScratch, mScratchSize);
+            }
+            if (matchCount == 0) {
+                break;
+            }
+        }
+
+        if (matches == null) {
+            publish(new long[0], 0, generation, listener);
+        } else if (matchCount > MAX_RESULTS) {
+            //Keep the newest matches
+            long[] newest = Arrays.copyOfRange(matches, matchCount - MAX_RESULTS, matchCount);
+            publish(newest, MAX_RESULTS, generation, listener);
+        } else {
+            publish(matches, matchCount, generation, listener);
+        }
+    }
+
+    /*
+     * Gather the sorted, de-duplicated ids of live entries with a token
+     * starting with prefix into the scratch buffer. Returns false if the
+     * query was superseded while scanning.
+     */
+    private boolean collect(String prefix, int generation) {
+        mScratchSize = 0;
+        long minLive = getMinLiveId();
+
+        int low = 0, high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTokens[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i=low; i < mSize && mTokens[i].startsWith(prefix); i++) {
+            if ((i - low) % CANCEL_CHECK_INTERVAL == 0 && generation != mGeneration.get()) {
+                return false;
+            }
+            if (mTokenIds[i] >= minLive) {
+                appendScratch(mTokenIds[i]);
+            }
+        }
+        for (int i=0; i < mTailSize; i++) {
+            if (mTail[i].id >= minLive && mTail[i].token.startsWith(prefix)) {
+                appendScratch(mTail[i].id);
+            }
+        }
+
+        Arrays.sort(mScratch, 0, mScratchSize);
+        int n = 0;
+        for (int i=0; i < mScratchSize; i++) {
+            if (n == 0 || mScratch[n - 1] != mScratch[i]) {
+                mScratch[n++] = mScratch[i];
+            }
+        }
+        mScratchSize = n;
+        return true;
+    }
+
+    private void appendScratch(long id) {
+        if (mScratchSize == mScratch.length) {
+            mScratch = Arrays.copyOf(mScratch, mScratchSize * 2);
+        }
+        mScratch[mScratchSize++] = id;
+    }
+
+    //Intersect two sorted id lists into the first, returning its new length
+    private static int intersect(long[] a, int aCount, long[] b, int bCount) {
+        int n = 0, i = 0, j = 0;
+        while (i < aCount && j < bCount) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    private void publish(final long[] ids, final int count, final int generation,
+                         final OnSearchResultsListener listener) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //A newer query may have started while this one was in transit
+                if (generation == mGeneration.get()) {
+                    listener.onSearchResults(ids, count);
+                }
+            }
+        });
+    }
+
+    private static final class Posting {
+        final String token;
+        final long id;
+
+        Posting(String token, long id) {
+            this.token = token;
+            this.id = id;
+        }
+    }
+
+    private static final Comparator<Posting> POSTING_ORDER = new Comparator<Posting>() {
+        @Override
+        public int compare(Posting lhs, Posting rhs) {
+            return lhs.token.compareTo(rhs.token);
+        }
+    };
+}
@@ -0,0 +1,592 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only binary log of submitted entries, so they survive the
+ * activity being recreated.
+ *
+ * The file is a short header followed by records of the form
+ * [u16 name length][UTF-8 name][u16 email length][UTF-8 email]. All file
+ * access happens on a single worker thread: appends are queued and written
+ * in batches, a reload streams records back through a FileChannel in
+ * fixed-size pages, and once the log holds twice the retained count it is
+ * compacted down to the newest records. A torn record at the end of the
+ * file (e.g. from a crash mid-write) is dropped when the log is opened.
+ *
+ * Only one EntryLog may be open on a file at a time; share a single
+ * instance across activity recreation rather than opening a new one.
+ * Results are delivered on the executor passed to the constructor.
+ */
+public class EntryLog {
+
+    private static final String TAG = "EntryLog";
+
+    /** Leave flushing to disk to the OS */
+    public static final int SYNC_NONE = 0;
+    /** Force each written batch to disk before the next */
+    public static final int SYNC_BATCH = 1;
+
+    public interface OnPageLoadedListener {
+        /**
+         * A page of entries read back from the log, oldest first. Arrays
+         * are owned by the receiver.
+         */
+        public void onPageLoaded(String[] names, String[] emails, int count);
+
+        /**
+         * Every page has been delivered
+         */
+        public void onLoadFinished();
+    }
+
+    private static final int MAGIC = 0x454E5452; //"ENTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    //Bounds each encoded field below the u16 length limit, even at 4 bytes per 2 chars
+    private static final int MAX_FIELD_CHARS = 0x3FFF;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long DEFAULT_BATCH_DELAY = 250;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final int mRetainCount;
+    private final Executor mCallbackExecutor;
+    private final ScheduledThreadPoolExecutor mWorker;
+
+    /* Pending writes, guarded by mLock */
+    private final Object mLock = new Object();
+    //Flattened name, email pairs
+    private ArrayList<String> mPending = new ArrayList<String>();
+    private boolean mFlushScheduled;
+    private boolean mClosed;
+    private volatile int mSyncPolicy = SYNC_NONE;
+    private volatile long mBatchDelay = DEFAULT_BATCH_DELAY;
+
+    /* Worker thread state */
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+    private long mEnd;
+    private int mRecordCount;
+
+    /**
+     * @param file Log file, created if missing
+     * @param retainCount Number of newest entries kept by compaction
+     * @param callbackExecutor Executor for listener callbacks, typically the main thread
+     */
+    public EntryLog(File file, int retainCount, Executor callbackExecutor) {
+        if (retainCount <= 0) {
+            throw new IllegalArgumentException("Retain count must be positive");
+        }
+        mFile = file;
+        mRetainCount = retainCount;
+        mCallbackExecutor = callbackExecutor;
+        mWorker = new ScheduledThreadPoolExecutor(1);
+        //close() flushes everything itself; don't wait out pending batch delays
+        mWorker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * One of {@link #SYNC_NONE} or {@link #SYNC_BATCH}
+     */
+    public void setSyncPolicy(int policy) {
+        if (policy != SYNC_NONE && policy != SYNC_BATCH) {
+            throw new IllegalArgumentException("Unknown sync policy " + policy);
+        }
+        mSyncPolicy = policy;
+    }
+
+    /**
+     * How long appends are collected before being written as one batch
+     */
+    public void setBatchDelay(long delayMillis) {
+        mBatchDelay = delayMillis;
+    }
+
+    /**
+     * Queue an entry to be written. Values are copied on the calling thread.
+     */
+    public void append(CharSequence name, CharSequence email) {
+        String nameValue = clampField(name);
+        String emailValue = clampField(email);
+        synchronized (mLock) {
+            checkOpen();
+            mPending.add(nameValue);
+            mPending.add(emailValue);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+            //Under the lock so close() cannot shut the worker down in between
+            mWorker.schedule(mFlushTask, mBatchDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String clampField(CharSequence value) {
+        if (value == null) {
+            return "";
+        }
+        String string = value.toString();
+        return (string.length() > MAX_FIELD_CHARS) ? string.substring(0, MAX_FIELD_CHARS) : string;
+    }
+
+    /**
+     * Read the newest retained entries back in pages of up to pageSize
+     * entries, oldest first. Appends still waiting for their batch are
+     * written first, so they are included.
+     *
+     * @return the load, which the receiver should cancel if it goes away
+     *         before {@link OnPageLoadedListener#onLoadFinished()}
+     */
+    public Load load(final int pageSize, OnPageLoadedListener listener) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        final Load load = new Load(listener);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mFlushTask.run();
+                    openIfNeeded();
+                    //The log may hold up to twice the retained count before compaction
+                    scan(new PageVisitor(pageSize, Math.max(0, mRecordCount - mRetainCount), load));
+                } catch (IOException e) {
+                    onIoError(e);
+                }
+                mCallbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OnPageLoadedListener listener = load.mListener;
+                        if (listener != null) {
+                            listener.onLoadFinished();
+                        }
+                    }
+                });
+            }
+        });
+        return load;
+    }
+
+    /**
+     * Rewrite the log keeping only the newest retained entries
+     */
+    public void compact() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openIfNeeded();
+                    compactLog();
+                } catch (IOException e) {
+                    onIoError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write anything still queued, close the file and stop the worker,
+     * blocking until it is done so the file may be opened again at once.
+     * The log cannot be used afterward.
+     */
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFlushTask.run();
+                closeChannel();
+            }
+        });
+        mWorker.shutdown();
+        try {
+            while (!mWorker.awaitTermination(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Waiting for log to close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Runnable task) {
+        synchronized (mLock) {
+            checkOpen();
+            mWorker.execute(task);
+        }
+    }
+
+    //Call with mLock held
+    private void checkOpen() {
+        if (mClosed) {
+            throw new IllegalStateException("EntryLog is closed");
+        }
+    }
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<String> batch;
+            synchronized (mLock) {
+                mFlushScheduled = false;
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = mPending;
+                mPending = new ArrayList<String>();
+            }
+
+            try {
+                openIfNeeded();
+                writeBatch(batch);
+                if (mRecordCount >= mRetainCount * 2) {
+                    compactLog();
+                }
+            } catch (IOException e) {
+                onIoError(e);
+            }
+        }
+    };
+
+    /* Worker thread only below */
+
+    private void openIfNeeded() throws IOException {
+        if (mChannel != null) {
+            return;
+        }
+        if (mBuffer == null) {
+            mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        if (!readHeader(mChannel)) {
+            //Missing or foreign file; start a fresh log
+            mChannel.truncate(0);
+            writeHeader(mChannel);
+        }
+
+        //Count the records and drop any torn tail
+        scan(null);
+        if (mChannel.size() > mEnd) {
+            mChannel.truncate(mEnd);
+        }
+    }
+
+    private boolean readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    private void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void writeBatch(ArrayList<String> batch) throws IOException {
+        ByteBuffer buffer = mBuffer;
+        buffer.clear();
+        long position = mEnd;
+        for (int i=0; i < batch.size(); i += 2) {
+            byte[] name = batch.get(i).getBytes(UTF_8);
+            byte[] email = batch.get(i + 1).getBytes(UTF_8);
+
+            if (buffer.remaining() < 4 + name.length + email.length) {
+                buffer.flip();
+                writeFully(mChannel, buffer, position);
+                position += buffer.limit();
+                buffer.clear();
+            }
+            buffer.putShort((short) name.length).put(name);
+            buffer.putShort((short) email.length).put(email);
+        }
+        buffer.flip();
+        writeFully(mChannel, buffer, position);
+        position += buffer.limit();
+
+        if (mSyncPolicy == SYNC_BATCH) {
+            mChannel.force(false);
+        }
+        mEnd = position;
+        mRecordCount += batch.size() / 2;
+    }
+
+    private void compactLog() throws IOException {
+        int skip = mRecordCount - mRetainCount;
+        if (skip <= 0) {
+            return;
+        }
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileChannel out = new RandomAccessFile(tempFile, "rw").getChannel();
+        try {
+            out.truncate(0);
+            writeHeader(out);
+            CopyVisitor copy = new CopyVisitor(out, skip);
+            scan(copy);
+            copy.finish();
+            out.force(false);
+        } finally {
+            out.close();
+        }
+
+        closeChannel();
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+        openIfNeeded();
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing log", e);
+            }
+            mChannel = null;
+        }
+    }
+
+    private void onIoError(IOException e) {
+        Log.w(TAG, "Entry log failure", e);
+        //Reopen (and rescan) on the next operation
+        closeChannel();
+    }
+
+    /*
+     * Walk every complete record from the header to the end of the file,
+     * reading through the shared buffer. Records the end of the last
+     * complete record and the record count.
+     */
+    private void scan(RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = mBuffer;
+        buffer.clear();
+        long readPosition = HEADER_SIZE;
+        long end = HEADER_SIZE;
+        int count = 0;
+
+        while (true) {
+            int read = mChannel.read(buffer, readPosition);
+            if (read > 0) {
+                readPosition += read;
+            }
+            buffer.flip();
+
+            while (buffer.remaining() >= 2) {
+                int start = buffer.position();
+                int nameLength = buffer.getShort(start) & 0xFFFF;
+                if (buffer.remaining() < 4 + nameLength) {
+                    break;
+                }
+                int emailLength = buffer.getShort(start + 2 + nameLength) & 0xFFFF;
+                int recordLength = 4 + nameLength + emailLength;
+                if (buffer.remaining() < recordLength) {
+                    break;
+                }
+
+                if (visitor != null) {
+                    visitor.visit(buffer, start, nameLength, emailLength, count);
+                }
+                buffer.position(start + recordLength);
+                end += recordLength;
+                count++;
+            }
+
+            buffer.compact();
+            if (read <= 0) {
+                //End of file; anything left in the buffer is a torn record
+                break;
+            }
+        }
+
+        if (visitor != null) {
+            visitor.finishScan();
+        }
+        mEnd = end;
+        mRecordCount = count;
+    }
+
+    /**
+     * A load in progress. Cancelling it drops the listener, so nothing
+     * more is delivered and the log no longer keeps the receiver alive.
+     */
+    public static final class Load {
+        private volatile OnPageLoadedListener mListener;
+
+        Load(OnPageLoadedListener listener) {
+            mListener = listener;
+        }
+
+        /**
+         * Call on the callback executor's thread, e.g. when the receiver
+         * is destroyed
+         */
+        public void cancel() {
+            mListener = null;
+        }
+
+        public boolean isCancelled() {
+            return mListener == null;
+        }
+    }
+
+    private static abstract class RecordVisitor {
+        abstract void visit(ByteBuffer buffer, int start, int nameLength, int emailLength, int index)
+                throws IOException;
+
+        void finishScan() throws IOException { }
+    }
+
+    private class PageVisitor extends RecordVisitor {
+        private final int mPageSize;
+        private final int mSkip;
+        private final Load mLoad;
+        private String[] mNames, mEmails;
+        private int mCount;
+
+        PageVisitor(int pageSize, int skip, Load load) {
+            mPageSize = pageSize;
+            mSkip = skip;
+            mLoad = load;
+        }
+
+        @Override
+        void visit(ByteBuffer buffer, int start, int nameLength, int emailLength, int index) {
+            if (index < mSkip || mLoad.isCancelled()) {
+                return;
+            }
+            if (mNames == null) {
+                mNames = new String[mPageSize];
+                mEmails = new String[mPageSize];
+            }
+            int offset = buffer.arrayOffset() + start;
+            byte[] data = buffer.array();
+            mNames[mCount] = new String(data, offset + 2, nameLength, UTF_8);
+            mEmails[mCount] = new String(data, offset + 4 + nameLength, emailLength, UTF_8);
+            mCount++;
+
+            if (mCount == mPageSize) {
+                deliverPage();
+            }
+        }
+
+        @Override
+        void finishScan() {
+            if (mCount > 0) {
+                deliverPage();
+            }
+        }
+
+        private void deliverPage() {
+            final String[] names = mNames;
+            final String[] emails = mEmails;
+            final int count = mCount;
+            mNames = null;
+            mEmails = null;
+            mCount = 0;
+
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    OnPageLoadedListener listener = mLoad.mListener;
+                    if (listener != null) {
+                        listener.onPageLoaded(names, emails, count);
+                    }
+                }
+            });
+        }
+    }
+
+    private static class CopyVisitor extends RecordVisitor {
+        private final FileChannel mOut;
+        private final int mSkip;
+        private final ByteBuffer mOutBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long mPosition = HEADER_SIZE;
+
+        CopyVisitor(FileChannel out, int skip) {
+            mOut = out;
+            mSkip = skip;
+        }
+
+        @Override
+        void visit(ByteBuffer buffer, int start, int nameLength, int emailLength, int index)
+                throws IOException {
+            if (index < mSkip) {
+                return;
+            }
+            int recordLength = 4 + nameLength + emailLength;
+            if (mOutBuffer.remaining() < recordLength) {
+                flush();
+            }
+            mOutBuffer.put(buffer.array(), buffer.arrayOffset() + start, recordLength);
+        }
+
+        private void flush() throws IOException {
+            mOutBuffer.flip();
+            int length = mOutBuffer.limit();
+            writeFully(mOut, mOutBuffer, mPosition);
+            mPosition += length;
+            mOutBuffer.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+        }
+    }
+}
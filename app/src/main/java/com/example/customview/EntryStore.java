@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+/**
+ * Storage for entries submitted through the compound control. Names and
+ * emails are kept as separate fields in parallel arrays, leaving any
+ * display formatting to bind time.
+ *
+ * With a capacity set the store is a ring buffer: once full, each new
+ * entry overwrites the oldest one, so memory stays bounded and adding is
+ * constant time no matter how many entries are submitted.
+ */
+public class EntryStore {
+
+    public static final int UNBOUNDED = 0;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int mCapacity;
+    private String[] mNames, mEmails;
+    //Array index of the oldest entry
+    private int mHead;
+    private int mSize;
+    //Total ever added, used to hand out stable ids
+    private long mAddedCount;
+
+    public EntryStore() {
+        this(UNBOUNDED);
+    }
+
+    public EntryStore(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        mCapacity = capacity;
+
+        int initial = (capacity == UNBOUNDED) ? INITIAL_CAPACITY : Math.min(capacity, INITIAL_CAPACITY);
+        mNames = new String[initial];
+        mEmails = new String[initial];
+    }
+
+    /**
+     * Append an entry, evicting the oldest one if the store is at
+     * capacity. Values are copied, so mutable text (e.g. an Editable that
+     * is cleared afterward) is safe to pass.
+     */
+    public void add(CharSequence name, CharSequence email) {
+        String nameValue = (name == null) ? "" : name.toString();
+        String emailValue = (email == null) ? "" : email.toString();
+
+        if (mSize == mNames.length) {
+            if (mCapacity == UNBOUNDED || mNames.length < mCapacity) {
+                grow();
+            } else {
+                //Full ring; overwrite the oldest slot and advance the head
+                mNames[mHead] = nameValue;
+                mEmails[mHead] = emailValue;
+                mHead = (mHead + 1) % mNames.length;
+                mAddedCount++;
+                return;
+            }
+        }
+
+        int index = (mHead + mSize) % mNames.length;
+        mNames[index] = nameValue;
+        mEmails[index] = emailValue;
+        mSize++;
+        mAddedCount++;
+    }
+
+    private void grow() {
+        int length = mNames.length * 2;
+        if (mCapacity != UNBOUNDED) {
+            length = Math.min(length, mCapacity);
+        }
+
+        String[] names = new String[length];
+        String[] emails = new String[length];
+        for (int i=0; i < mSize; i++) {
+            int index = (mHead + i) % mNames.length;
+            names[i] = mNames[index];
+            emails[i] = mEmails[index];
+        }
+        mNames = names;
+        mEmails = emails;
+        mHead = 0;
+    }
+
+    public String getName(int position) {
+        return mNames[indexOf(position)];
+    }
+
+    public String getEmail(int position) {
+        return mEmails[indexOf(position)];
+    }
+
+    /**
+     * Id unique to the entry at position, which it keeps while it remains
+     * in the store even as older entries are evicted
+     */
+    public long getId(int position) {
+        indexOf(position);
+        return mAddedCount - mSize + position;
+    }
+
+    /**
+     * Current position of the entry with id, or -1 if it has been evicted
+     * or not yet added
+     */
+    public int getPosition(long id) {
+        long first = mAddedCount - mSize;
+        if (id < first || id >= mAddedCount) {
+            return -1;
+        }
+        return (int) (id - first);
+    }
+
+    /**
+     * Total number of entries ever added; the id the next entry will get
+     */
+    public long getAddedCount() {
+        return mAddedCount;
+    }
+
+    private int indexOf(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return (mHead + position) % mNames.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Maximum number of entries held, or {@link #UNBOUNDED}
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public void clear() {
+        for (int i=0; i < mNames.length; i++) {
+            mNames[i] = null;
+            mEmails[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+}
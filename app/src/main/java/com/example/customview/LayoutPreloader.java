@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Resources;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.InflateException;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import com.example.customview.widget.AspectImageView;
+import com.example.customview.widget.BoxGridLayout;
+import com.example.customview.widget.DoubleImageView;
+import com.example.customview.widget.EntryFormView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Inflates screen layouts ahead of time and hands the finished
+ * hierarchies to the activity that shows them.
+ *
+ * Views are not safe to create off the main thread on this API level, so
+ * only class loading and drawable decoding run in the background. Layouts
+ * are inflated on the main thread when its queue goes idle, one layout
+ * per idle pass, so the work fits in the gaps between the user's input.
+ *
+ * Layouts are inflated against a {@link MutableContextWrapper} around the
+ * requesting context, whose own inflater is bound to the wrapper, so
+ * views that inflate their own content (such as {@link EntryFormView})
+ * get the wrapper too. On handoff the wrapper is re-pointed at the
+ * receiving activity. The demo activities share the application theme,
+ * so resolving styles against the requesting activity gives the same
+ * result. Each preloaded hierarchy is used at most once. A screen whose
+ * hierarchy is not ready inflates on the main thread as usual. All
+ * methods must be called from the main thread.
+ */
+public final class LayoutPreloader {
+
+    private static final String TAG = "LayoutPreloader";
+
+    //Drawables the demo layouts reference
+    private static final int[] WARM_UP_DRAWABLES = {R.drawable.android1, R.drawable.flag_us,
+            R.drawable.flag_uk, R.drawable.background};
+
+    private static final ExecutorService WARM_UP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /* Handoff Queue */
+    private static final SparseArray<Pending> sPending = new SparseArray<Pending>();
+    private static boolean sWarmedUp;
+
+    /*
+     * A layout waiting for the main thread to go idle, then waiting to be
+     * taken
+     */
+    private static final class Pending implements MessageQueue.IdleHandler {
+        final PreloadContext context;
+        final int layoutId;
+        View view;
+
+        Pending(PreloadContext context, int layoutId) {
+            this.context = context;
+            this.layoutId = layoutId;
+        }
+
+        @Override
+        public boolean queueIdle() {
+            try {
+                //Inflate against a parent so the root keeps its XML layout params
+                FrameLayout parent = new FrameLayout(context);
+                view = LayoutInflater.from(context).inflate(layoutId, parent, false);
+            } catch (InflateException e) {
+                Log.w(TAG, "Preloading failed", e);
+                if (sPending.get(layoutId) == this) {
+                    sPending.remove(layoutId);
+                }
+            }
+            return false;
+        }
+    }
+
+    /*
+     * Like ContextThemeWrapper, hands out an inflater bound to itself
+     * rather than the base context's shared one
+     */
+    private static final class PreloadContext extends MutableContextWrapper {
+        private LayoutInflater mInflater;
+
+        PreloadContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            if (LAYOUT_INFLATER_SERVICE.equals(name)) {
+                if (mInflater == null) {
+                    mInflater = LayoutInflater.from(getBaseContext()).cloneInContext(this);
+                }
+                return mInflater;
+            }
+            return super.getSystemService(name);
+        }
+    }
+
+    private LayoutPreloader() { }
+
+    /**
+     * Load the widget classes and decode the demo drawables once in the
+     * background, so the first screen that uses them does not pay for
+     * class initialization or decoding on the main thread.
+     */
+    public static void warmUp(Context context) {
+        checkMainThread();
+        if (sWarmedUp) {
+            return;
+        }
+        sWarmedUp = true;
+
+        final Resources resources = context.getApplicationContext().getResources();
+        WARM_UP_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warmUpClass(AspectImageView.class.getName());
+                warmUpClass(DoubleImageView.class.getName());
+                warmUpClass(BoxGridLayout.class.getName());
+                warmUpClass(BoxGridLayout.LayoutParams.class.getName());
+                warmUpClass(EntryFormView.class.getName());
+                //Fills the shared drawable cache; the drawables themselves are dropped
+                for (int id : WARM_UP_DRAWABLES) {
+                    resources.getDrawable(id);
+                }
+            }
+        });
+    }
+
+    private static void warmUpClass(String className) {
+        try {
+            Class.forName(className, true, LayoutPreloader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            Log.w(TAG, "Unable to warm up " + className, e);
+        }
+    }
+
+    /**
+     * Inflate a layout the next time the main thread is idle, unless one
+     * is already waiting to be handed off
+     */
+    public static void preload(Context context, int layoutId) {
+        checkMainThread();
+        if (sPending.get(layoutId) != null) {
+            return;
+        }
+
+        Pending pending = new Pending(new PreloadContext(context), layoutId);
+        sPending.put(layoutId, pending);
+        Looper.myQueue().addIdleHandler(pending);
+    }
+
+    /**
+     * Take the preloaded hierarchy for a layout, re-pointed at the given
+     * activity.
+     *
+     * @return the hierarchy, or null if none was preloaded, it failed, or
+     *         the main thread has not been idle since it was requested
+     */
+    public static View take(Activity activity, int layoutId) {
+        checkMainThread();
+        Pending pending = sPending.get(layoutId);
+        if (pending == null) {
+            return null;
+        }
+        sPending.remove(layoutId);
+
+        if (pending.view == null) {
+            //Not inflated yet; inflating here is no slower than waiting
+            Looper.myQueue().removeIdleHandler(pending);
+            return null;
+        }
+        pending.context.setBaseContext(activity);
+        return pending.view;
+    }
+
+    /**
+     * Set the activity's content from the preloaded hierarchy if there is
+     * one, or by inflating the layout otherwise, and start timing the
+     * screen's first frame.
+     *
+     * @return true if the preloaded hierarchy was used
+     */
+    public static boolean setContentView(Activity activity, int layoutId) {
+        View view = take(activity, layoutId);
+        if (view != null) {
+            activity.setContentView(view, view.getLayoutParams());
+        } else {
+            activity.setContentView(layoutId);
+        }
+        StartupTimer.onContentSet(activity, view != null);
+        return view != null;
+    }
+
+    /**
+     * Drop every hierarchy waiting to be handed off
+     */
+    public static void clear() {
+        checkMainThread();
+        MessageQueue queue = Looper.myQueue();
+        for (int i=0; i < sPending.size(); i++) {
+            queue.removeIdleHandler(sPending.valueAt(i));
+        }
+        sPending.clear();
+    }
+
+    private static void checkMainThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("LayoutPreloader must be used from the main thread");
+        }
+    }
+}
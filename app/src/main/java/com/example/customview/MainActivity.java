@@ -24,7 +24,12 @@ package com.example.customview;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -33,9 +38,23 @@ import android.widget.ListView;
 public class MainActivity extends Activity implements AdapterView.OnItemClickListener {
 
     private static final String[] ITEMS = {"AspectImageView", "Compound Control", "DoubleImageView", "BoxGridLayout"};
+    private static final Class<?>[] SCREENS = {AspectImageActivity.class, CompoundControlActivity.class,
+            DoubleImageActivity.class, BoxGridActivity.class};
+    //Layout each screen shows, or 0 if it builds its own content
+    private static final int[] LAYOUTS = {R.layout.aspect, R.layout.compound, R.layout.double_image, R.layout.box};
+
+    private static final String PREFS_NAME = "launches";
+    private static final String PREF_PREINFLATE = "preinflate";
+    private static final String PREF_COUNT_PREFIX = "count_";
+    private static final int MENU_PREINFLATE = 1;
+
+    private SharedPreferences mPrefs;
 
     public void onCreate(Bundle savedInstanceState) {
+        StartupTimer.onCreate(this);
         super.onCreate(savedInstanceState);
+        mPrefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
         ListView list = new ListView(this);
         ArrayAdapter<String> adapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, ITEMS);
 
@@ -43,33 +62,107 @@ public class MainActivity extends Activity implements AdapterView.OnItemClickLis
         list.setOnItemClickListener(this);
 
         setContentView(list);
+        StartupTimer.onContentSet(this, false);
     }
 
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        switch (position) {
-            case 0: {
-                Intent i = new Intent(this, AspectImageActivity.class);
-                startActivity(i);
-                break;
+    protected void onResume() {
+        super.onResume();
+        if (isPreinflateEnabled()) {
+            Looper.myQueue().addIdleHandler(mPreloadOnIdle);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        Looper.myQueue().removeIdleHandler(mPreloadOnIdle);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        LayoutPreloader.clear();
+    }
+
+    /*
+     * Once the menu has nothing left to do, warm up the widgets and
+     * start inflating the screen the user is most likely to open next
+     */
+    private final MessageQueue.IdleHandler mPreloadOnIdle = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            LayoutPreloader.warmUp(MainActivity.this);
+            int position = predictNextScreen();
+            if (position >= 0) {
+                LayoutPreloader.preload(MainActivity.this, LAYOUTS[position]);
             }
-            case 1: {
-                Intent i = new Intent(this, CompoundControlActivity.class);
-                startActivity(i);
-                break;
+            return false;
+        }
+    };
+
+    /*
+     * The most opened screen with a layout, or the first such screen
+     * before any have been opened
+     */
+    private int predictNextScreen() {
+        int best = -1;
+        int bestCount = -1;
+        for (int i=0; i < LAYOUTS.length; i++) {
+            if (LAYOUTS[i] == 0) {
+                continue;
             }
-            case 2: {
-                Intent i = new Intent(this, DoubleImageActivity.class);
-                startActivity(i);
-                break;
+            int count = mPrefs.getInt(PREF_COUNT_PREFIX + i, 0);
+            if (count > bestCount) {
+                best = i;
+                bestCount = count;
             }
-            case 3: {
-                Intent i = new Intent(this, BoxGridActivity.class);
-                startActivity(i);
-                break;
+        }
+        return best;
+    }
+
+    private boolean isPreinflateEnabled() {
+        return mPrefs.getBoolean(PREF_PREINFLATE, true);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_PREINFLATE, Menu.NONE, "Pre-inflate screens")
+                .setCheckable(true)
+                .setChecked(isPreinflateEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_PREINFLATE) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            mPrefs.edit().putBoolean(PREF_PREINFLATE, enabled).apply();
+            if (enabled) {
+                Looper.myQueue().addIdleHandler(mPreloadOnIdle);
+            } else {
+                Looper.myQueue().removeIdleHandler(mPreloadOnIdle);
+                LayoutPreloader.clear();
             }
-            default:
-                break;
+            return true;
         }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        if (position < 0 || position >= SCREENS.length) {
+            return;
+        }
+
+        String key = PREF_COUNT_PREFIX + position;
+        mPrefs.edit().putInt(key, mPrefs.getInt(key, 0) + 1).apply();
+
+        Class<? extends Activity> screen = (Class<? extends Activity>) SCREENS[position];
+        StartupTimer.markLaunch(screen);
+        Intent i = new Intent(this, screen);
+        startActivity(i);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Records how long each screen takes to draw its first frame.
+ *
+ * A screen is timed from {@link #onCreate(Activity)}. When it was opened
+ * from the menu, it is also timed from the tap marked with
+ * {@link #markLaunch(Class)}, which includes the round trip through the
+ * system. The first frame is taken as the end of the first traversal
+ * after the content view is set. Samples are logged as they arrive and
+ * kept so the benchmark test can include them in its report. All methods
+ * must be called from the main thread.
+ */
+public final class StartupTimer {
+
+    private static final String TAG = "StartupTimer";
+    private static final int MAX_SAMPLES = 100;
+
+    public static final class Sample {
+        public final String screen;
+        public final boolean preinflated;
+        public final long createToFirstFrameMillis;
+        //-1 when the screen was not launched from the menu
+        public final long launchToFirstFrameMillis;
+
+        Sample(String screen, boolean preinflated, long createToFirstFrameMillis, long launchToFirstFrameMillis) {
+            this.screen = screen;
+            this.preinflated = preinflated;
+            this.createToFirstFrameMillis = createToFirstFrameMillis;
+            this.launchToFirstFrameMillis = launchToFirstFrameMillis;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("screen", screen);
+            json.put("preinflated", preinflated);
+            json.put("createToFirstFrameMs", createToFirstFrameMillis);
+            json.put("launchToFirstFrameMs", launchToFirstFrameMillis);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return screen + " first frame in " + createToFirstFrameMillis + " ms"
+                    + (launchToFirstFrameMillis >= 0 ? " (" + launchToFirstFrameMillis + " ms from tap)" : "")
+                    + (preinflated ? ", preinflated" : "");
+        }
+    }
+
+    private static final HashMap<String, Long> sLaunches = new HashMap<String, Long>();
+    private static final WeakHashMap<Activity, long[]> sStarts = new WeakHashMap<Activity, long[]>();
+    private static final ArrayList<Sample> sSamples = new ArrayList<Sample>();
+
+    private StartupTimer() { }
+
+    /**
+     * Mark that a screen is about to be launched
+     */
+    public static void markLaunch(Class<? extends Activity> screen) {
+        sLaunches.put(screen.getName(), System.nanoTime());
+    }
+
+    /**
+     * Start timing a screen; call first thing in its onCreate()
+     */
+    public static void onCreate(Activity activity) {
+        Long launch = sLaunches.remove(activity.getClass().getName());
+        sStarts.put(activity, new long[] {System.nanoTime(), launch != null ? launch : -1});
+    }
+
+    /**
+     * Wait for the first frame of a screen whose content view has just
+     * been set
+     */
+    public static void onContentSet(final Activity activity, final boolean preinflated) {
+        final long[] starts = sStarts.remove(activity);
+        if (starts == null) {
+            return;
+        }
+
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                //Runs once the traversal that draws this frame completes
+                decor.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        long now = System.nanoTime();
+                        addSample(new Sample(activity.getClass().getSimpleName(), preinflated,
+                                (now - starts[0]) / 1000000,
+                                starts[1] >= 0 ? (now - starts[1]) / 1000000 : -1));
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    private static void addSample(Sample sample) {
+        if (sSamples.size() == MAX_SAMPLES) {
+            sSamples.remove(0);
+        }
+        sSamples.add(sample);
+        Log.i(TAG, sample.toString());
+    }
+
+    public static List<Sample> getSamples() {
+        return new ArrayList<Sample>(sSamples);
+    }
+
+    public static JSONArray toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i=0; i < sSamples.size(); i++) {
+            array.put(sSamples.get(i).toJson());
+        }
+        return array;
+    }
+}
@@ -23,42 +23,458 @@
 package com.example.customview.widget;
 
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.ImageView;
+import com.example.customview.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 /**
  * ImageView that sizes itself to match the proper aspect ratio size of
- * the image content
+ * the image content.
+ *
+ * Content set through {@link #setImageSource(ImageSource)} (or the
+ * imageSource attribute) is measured from its header alone and decoded in
+ * the background, subsampled to the size the view is laid out at. With
+ * {@link #setTilingEnabled(boolean)}, very large sources are instead drawn
+ * from a coarse base bitmap overlaid with region-decoded tiles at the
+ * resolution the image is displayed at.
  */
 public class AspectImageView extends ImageView {
 
+    /* Instrumentation */
+    private static final ViewMetrics.Timer MEASURE_TIMER = ViewMetrics.timer("AspectImageView.onMeasure");
+    private static final ViewMetrics.Timer LAYOUT_TIMER = ViewMetrics.timer("AspectImageView.onLayout");
+    private static final ViewMetrics.Timer DRAW_TIMER = ViewMetrics.timer("AspectImageView.onDraw");
+    private static final ViewMetrics.Timer CONTENT_TIMER = ViewMetrics.timer("AspectImageView.updateContentMetrics");
+
+    /* Content Metrics (cached per drawable or source) */
+    private Object mMeasuredContent;
+    private int mIntrinsicWidth, mIntrinsicHeight;
+    private int mDesiredSize;
+    private float mAspect;
+
+    /* Layout Avoidance */
+    private boolean mChangingContent;
+    private boolean mHasMeasured;
+    private int mLastWidthMeasureSpec, mLastHeightMeasureSpec;
+    private int mResolvedWidth, mResolvedHeight;
+    private int mAvoidedLayoutCount;
+
+    /* Deferred Decoding */
+    private ImageSource mSource;
+    //Source size in raw pixels, and scaled for display density
+    private int mSourcePixelWidth, mSourcePixelHeight;
+    private int mSourceWidth, mSourceHeight;
+    private DecodeTask mDecodeTask;
+    //Sample size of the bitmap currently shown, or 0 if none yet
+    private int mDecodedSampleSize;
+    private boolean mApplyingSource;
+    //Shared cache entry we hold a reference on while it is displayed
+    private BitmapCache.Entry mCacheEntry;
+    //Non-null when tiled rendering is enabled
+    private TileRenderer mTileRenderer;
+
     public AspectImageView(Context context) {
         super(context);
     }
 
     public AspectImageView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        init(context, attrs, 0);
     }
 
     public AspectImageView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        init(context, attrs, defStyle);
+    }
+
+    private void init(Context context, AttributeSet attrs, int defStyle) {
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.AspectImageView, 0, defStyle);
+
+        int resId = a.getResourceId(R.styleable.AspectImageView_imageSource, 0);
+        if (resId != 0) {
+            setImageSource(resId);
+        }
+
+        a.recycle();
+    }
+
+    public void setImageSource(int resId) {
+        setImageSource(ImageSource.fromResource(getResources(), resId));
+    }
+
+    public void setImageSource(File file) {
+        setImageSource(ImageSource.fromFile(file));
+    }
+
+    /**
+     * Show the image described by source. Only its header is read here, so
+     * the view can measure at the correct aspect ratio right away; the
+     * pixels are decoded on a background thread once the view has been
+     * laid out, subsampled to the laid out size.
+     */
+    public void setImageSource(ImageSource source) {
+        cancelDecode();
+        mSource = source;
+        mDecodedSampleSize = 0;
+        mSourcePixelWidth = mSourcePixelHeight = 0;
+        mSourceWidth = mSourceHeight = 0;
+
+        if (source != null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            try {
+                source.decodeBounds(options);
+            } catch (IOException e) {
+                //Leave the size empty; the decode will fail the same way
+            }
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                float scale = source.getDensityScale();
+                mSourcePixelWidth = options.outWidth;
+                mSourcePixelHeight = options.outHeight;
+                mSourceWidth = Math.round(mSourcePixelWidth * scale);
+                mSourceHeight = Math.round(mSourcePixelHeight * scale);
+            }
+        }
+        if (mTileRenderer != null) {
+            mTileRenderer.setSource(source, mSourcePixelWidth, mSourcePixelHeight);
+        }
+
+        //Drop the old image; only lays out again if our size changes
+        mApplyingSource = true;
+        mChangingContent = true;
+        try {
+            super.setImageDrawable(null);
+            requestLayout();
+        } finally {
+            mChangingContent = false;
+            mApplyingSource = false;
+        }
+        releaseCacheEntry();
+
+        maybeStartDecode();
+    }
+
+    public ImageSource getImageSource() {
+        return mSource;
+    }
+
+    /**
+     * Render image sources as tiles rather than one bitmap. Only the
+     * visible region is decoded at full display resolution, so memory
+     * stays bounded by the view size however large the source is.
+     */
+    public void setTilingEnabled(boolean enabled) {
+        if (enabled == (mTileRenderer != null)) {
+            return;
+        }
+
+        if (enabled) {
+            mTileRenderer = new TileRenderer(this);
+        } else {
+            mTileRenderer.release();
+            mTileRenderer = null;
+        }
+        //Start over with the right kind of drawable
+        if (mSource != null) {
+            setImageSource(mSource);
+        }
+    }
+
+    public boolean isTilingEnabled() {
+        return mTileRenderer != null;
+    }
+
+    /*
+     * Show the best bitmap for our current size: straight from the shared
+     * cache if another view already decoded it, otherwise kick off a
+     * background decode. Nothing happens if what we show is good enough.
+     */
+    private void maybeStartDecode() {
+        if (mSource == null || mDecodeTask != null || mSourcePixelWidth == 0
+                || getWidth() == 0 || getHeight() == 0 || getWindowToken() == null) {
+            return;
+        }
+
+        int sampleSize = ImageSource.calculateSampleSize(mSourcePixelWidth, mSourcePixelHeight,
+                getWidth(), getHeight());
+        if (mTileRenderer != null) {
+            //Tiles supply the detail; keep the whole-image bitmap small
+            sampleSize = Math.max(sampleSize, mTileRenderer.getBaseSampleSize());
+        }
+        if (mDecodedSampleSize != 0 && sampleSize >= mDecodedSampleSize) {
+            return;
+        }
+
+        BitmapCache cache = BitmapCache.getInstance();
+        String key = BitmapCache.getKey(mSource, sampleSize);
+        BitmapCache.Entry entry = cache.acquire(key);
+        if (entry != null) {
+            showCacheEntry(entry, sampleSize);
+            return;
+        }
+
+        mDecodeTask = new DecodeTask(this, cache, key, mSource,
+                mSourcePixelWidth, mSourcePixelHeight, sampleSize);
+        mDecodeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void cancelDecode() {
+        if (mDecodeTask != null) {
+            mDecodeTask.cancel(false);
+            mDecodeTask = null;
+        }
+    }
+
+    private void onDecodeFinished(DecodeTask task, Bitmap bitmap) {
+        if (task != mDecodeTask) {
+            //We moved on, but another view may still want this one
+            if (bitmap != null) {
+                task.mCache.release(task.mCache.put(task.mKey, bitmap));
+            }
+            return;
+        }
+        mDecodeTask = null;
+        if (bitmap == null) {
+            return;
+        }
+
+        showCacheEntry(task.mCache.put(task.mKey, bitmap), task.mSampleSize);
+    }
+
+    private void showCacheEntry(BitmapCache.Entry entry, int sampleSize) {
+        mDecodedSampleSize = sampleSize;
+        mApplyingSource = true;
+        try {
+            if (mTileRenderer != null) {
+                setImageDrawable(mTileRenderer.createDrawable(getResources(), entry.bitmap, sampleSize));
+            } else {
+                setImageBitmap(entry.bitmap);
+            }
+        } finally {
+            mApplyingSource = false;
+        }
+
+        //Only let go of the old bitmap once it is no longer displayed
+        releaseCacheEntry();
+        mCacheEntry = entry;
+    }
+
+    private void releaseCacheEntry() {
+        if (mCacheEntry != null) {
+            BitmapCache.getInstance().release(mCacheEntry);
+            mCacheEntry = null;
+        }
+    }
+
+    private void clearImageSource() {
+        if (!mApplyingSource && mSource != null) {
+            cancelDecode();
+            mSource = null;
+            mDecodedSampleSize = 0;
+            if (mTileRenderer != null) {
+                mTileRenderer.setSource(null, 0, 0);
+            }
+        }
     }
 
     @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        //Figure out the aspect ratio of the image content
-        int desiredSize;
-        float aspect;
-        Drawable d = getDrawable();
-        if (d == null) {
-            desiredSize = 0;
-            aspect = 1f;
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        long start = ViewMetrics.start();
+        super.onLayout(changed, left, top, right, bottom);
+        maybeStartDecode();
+        LAYOUT_TIMER.stop(start);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = ViewMetrics.start();
+        super.onDraw(canvas);
+        DRAW_TIMER.stop(start);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mTileRenderer != null && mSource != null) {
+            mTileRenderer.setSource(mSource, mSourcePixelWidth, mSourcePixelHeight);
+        }
+        maybeStartDecode();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelDecode();
+        if (mTileRenderer != null) {
+            mTileRenderer.release();
+        }
+        if (mCacheEntry != null) {
+            //Give the shared bitmap back; reattaching picks it up again
+            mApplyingSource = true;
+            try {
+                super.setImageDrawable(null);
+            } finally {
+                mApplyingSource = false;
+            }
+            releaseCacheEntry();
+            mDecodedSampleSize = 0;
+        }
+    }
+
+    /**
+     * Number of layout requests skipped because new image content would
+     * have measured to the same size as the old.
+     */
+    public int getAvoidedLayoutCount() {
+        return mAvoidedLayoutCount;
+    }
+
+    /*
+     * ImageView requests a full layout on every content change. Flag the
+     * change so requestLayout() can check whether our size is affected.
+     */
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        clearImageSource();
+        mChangingContent = true;
+        try {
+            super.setImageDrawable(drawable);
+        } finally {
+            mChangingContent = false;
+        }
+        if (!mApplyingSource) {
+            releaseCacheEntry();
+        }
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        clearImageSource();
+        mChangingContent = true;
+        try {
+            super.setImageResource(resId);
+        } finally {
+            mChangingContent = false;
+        }
+        if (!mApplyingSource) {
+            releaseCacheEntry();
+        }
+    }
+
+    @Override
+    public void setImageURI(Uri uri) {
+        clearImageSource();
+        mChangingContent = true;
+        try {
+            super.setImageURI(uri);
+        } finally {
+            mChangingContent = false;
+        }
+        if (!mApplyingSource) {
+            releaseCacheEntry();
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        if (mChangingContent && isSameMeasurement()) {
+            //Same size as before; ImageView still invalidates for us
+            mAvoidedLayoutCount++;
+            return;
+        }
+        super.requestLayout();
+    }
+
+    /*
+     * Would the current content measure to the size we already have,
+     * given the specs from the last measure pass? If so, nothing above
+     * us can change and the layout request is wasted.
+     */
+    private boolean isSameMeasurement() {
+        if (!mHasMeasured || isLayoutRequested()) {
+            return false;
+        }
+
+        resolveAspectSize(mLastWidthMeasureSpec, mLastHeightMeasureSpec);
+        return mResolvedWidth == getMeasuredWidth() && mResolvedHeight == getMeasuredHeight();
+    }
+
+    /*
+     * Recompute the desired size and aspect only when the content or
+     * its intrinsic dimensions actually changed. An image source is
+     * measured from its header, whatever resolution has been decoded.
+     */
+    private void updateContentMetrics() {
+        Object content;
+        int width, height;
+        if (mSource != null) {
+            content = mSource;
+            width = mSourceWidth;
+            height = mSourceHeight;
+        } else {
+            Drawable d = getDrawable();
+            if (d == null) {
+                mMeasuredContent = null;
+                mDesiredSize = 0;
+                mAspect = 1f;
+                return;
+            }
+            content = d;
+            width = d.getIntrinsicWidth();
+            height = d.getIntrinsicHeight();
+        }
+
+        if (content == mMeasuredContent && width == mIntrinsicWidth && height == mIntrinsicHeight) {
+            return;
+        }
+
+        mMeasuredContent = content;
+        mIntrinsicWidth = width;
+        mIntrinsicHeight = height;
+        if (width <= 0 || height <= 0) {
+            //No intrinsic size (e.g. a color); treat like no content
+            mDesiredSize = 0;
+            mAspect = 1f;
         } else {
-            desiredSize = d.getIntrinsicWidth();
-            aspect = (float) d.getIntrinsicWidth() / (float) d.getIntrinsicHeight();
+            mDesiredSize = width;
+            mAspect = (float) width / (float) height;
         }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = ViewMetrics.start();
+        mLastWidthMeasureSpec = widthMeasureSpec;
+        mLastHeightMeasureSpec = heightMeasureSpec;
+        mHasMeasured = true;
+
+        resolveAspectSize(widthMeasureSpec, heightMeasureSpec);
+
+        //MUST do this to store the measurements
+        setMeasuredDimension(mResolvedWidth, mResolvedHeight);
+        MEASURE_TIMER.stop(start);
+    }
+
+    private void resolveAspectSize(int widthMeasureSpec, int heightMeasureSpec) {
+        //Figure out the aspect ratio of the image content
+        long start = ViewMetrics.start();
+        updateContentMetrics();
+        CONTENT_TIMER.stop(start);
+        int desiredSize = mDesiredSize;
+        float aspect = mAspect;
+
         //Get the width based on the measure specs
         int widthSize = View.resolveSize(desiredSize, widthMeasureSpec);
 
@@ -76,7 +492,80 @@ public class AspectImageView extends ImageView {
             }
         }
 
-        //MUST do this to store the measurements
-        setMeasuredDimension(widthSize, heightSize);
+        mResolvedWidth = widthSize;
+        mResolvedHeight = heightSize;
+    }
+
+    /*
+     * Decodes a source off the main thread. Holds the view weakly so a
+     * slow decode does not keep a finished screen alive.
+     */
+    private static class DecodeTask extends AsyncTask<Void, Void, Bitmap> {
+        private final WeakReference<AspectImageView> mViewReference;
+        private final BitmapCache mCache;
+        private final String mKey;
+        private final ImageSource mSource;
+        private final int mSourceWidth, mSourceHeight;
+        private final int mSampleSize;
+
+        DecodeTask(AspectImageView view, BitmapCache cache, String key, ImageSource source,
+                   int sourceWidth, int sourceHeight, int sampleSize) {
+            mViewReference = new WeakReference<AspectImageView>(view);
+            mCache = cache;
+            mKey = key;
+            mSource = source;
+            mSourceWidth = sourceWidth;
+            mSourceHeight = sourceHeight;
+            mSampleSize = sampleSize;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = mSampleSize;
+            //Mutable so the bitmap can go back to the pool once evicted
+            options.inMutable = true;
+            Bitmap reusable = mCache.getReusableBitmap(mSourceWidth, mSourceHeight, mSampleSize);
+            options.inBitmap = reusable;
+            try {
+                Bitmap bitmap;
+                try {
+                    bitmap = mSource.decode(options);
+                } catch (IllegalArgumentException e) {
+                    //Decoder refused the pooled bitmap; allocate instead
+                    options.inBitmap = null;
+                    bitmap = mSource.decode(options);
+                }
+
+                if (reusable != null) {
+                    if (bitmap == reusable) {
+                        mCache.recordReuse();
+                    } else {
+                        mCache.returnReusableBitmap(reusable);
+                    }
+                }
+                return bitmap;
+            } catch (IOException e) {
+                return null;
+            } catch (OutOfMemoryError e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            //Nobody will display it; let a later decode draw into it
+            if (bitmap != null) {
+                mCache.returnReusableBitmap(bitmap);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            AspectImageView view = mViewReference.get();
+            if (view != null) {
+                view.onDecodeFinished(this, bitmap);
+            }
+        }
     }
 }
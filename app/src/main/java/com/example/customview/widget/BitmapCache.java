@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+/**
+ * Process-wide, size-bounded LRU cache of decoded bitmaps, shared by all
+ * {@link AspectImageView} instances.
+ *
+ * Entries are keyed by image source and decode resolution, and are
+ * reference counted by the views displaying them. A bitmap that falls out
+ * of the cache is only handed to the reuse pool once no view is showing
+ * it, so on-screen pixels are never overwritten or recycled.
+ *
+ * All methods other than {@link #getReusableBitmap(int, int, int)} must be
+ * called from the main thread.
+ */
+public final class BitmapCache {
+
+    private static BitmapCache sInstance;
+
+    public static BitmapCache getInstance() {
+        if (sInstance == null) {
+            //An eighth of the heap for the cache, a sixteenth for reuse
+            long maxMemory = Runtime.getRuntime().maxMemory();
+            sInstance = new BitmapCache((int) (maxMemory / 8), (int) (maxMemory / 16));
+        }
+        return sInstance;
+    }
+
+    static final class Entry {
+        final Bitmap bitmap;
+        int refCount;
+        boolean evicted;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final LruCache<String, Entry> mCache;
+    private final BitmapPool mPool;
+
+    BitmapCache(int maxCacheBytes, int maxPoolBytes) {
+        mPool = new BitmapPool(maxPoolBytes);
+        mCache = new LruCache<String, Entry>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                oldValue.evicted = true;
+                if (oldValue.refCount == 0) {
+                    mPool.put(oldValue.bitmap);
+                }
+            }
+        };
+    }
+
+    static String getKey(ImageSource source, int sampleSize) {
+        return source.getKey() + "#" + sampleSize;
+    }
+
+    /**
+     * Look up a bitmap and take a reference on it if present
+     */
+    Entry acquire(String key) {
+        Entry entry = mCache.get(key);
+        if (entry != null) {
+            entry.refCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Add a freshly decoded bitmap, returning an entry the caller
+     * already holds a reference on
+     */
+    Entry put(String key, Bitmap bitmap) {
+        Entry entry = new Entry(bitmap);
+        entry.refCount = 1;
+        mCache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Drop a reference taken by acquire() or put()
+     */
+    void release(Entry entry) {
+        entry.refCount--;
+        if (entry.refCount == 0 && entry.evicted) {
+            mPool.put(entry.bitmap);
+        }
+    }
+
+    /**
+     * Find a pooled bitmap that a decode of the given source size and
+     * sample size may draw into, or null. Safe to call from any thread.
+     */
+    Bitmap getReusableBitmap(int sourceWidth, int sourceHeight, int sampleSize) {
+        if (Build.VERSION.SDK_INT >= 19) {
+            //KitKat can decode into any large enough allocation
+            int width = (sourceWidth + sampleSize - 1) / sampleSize;
+            int height = (sourceHeight + sampleSize - 1) / sampleSize;
+            return mPool.getAtLeast(width * height * 4);
+        }
+        if (sampleSize == 1) {
+            //Earlier releases need an exact match and no subsampling
+            return mPool.getExact(sourceWidth, sourceHeight);
+        }
+        return null;
+    }
+
+    /**
+     * Give back a bitmap obtained from getReusableBitmap() that ended up
+     * unused. Safe to call from any thread.
+     */
+    void returnReusableBitmap(Bitmap bitmap) {
+        mPool.put(bitmap);
+    }
+
+    /**
+     * Note that a decode successfully drew into a pooled bitmap
+     */
+    void recordReuse() {
+        mPool.recordReuse();
+    }
+
+    /**
+     * Drop everything not currently on screen, e.g. from onLowMemory()
+     */
+    public void evictAll() {
+        mCache.evictAll();
+        mPool.clear();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * Number of decodes that drew into a pooled bitmap instead of a new one
+     */
+    public int reuseCount() {
+        return mPool.reuseCount();
+    }
+
+    /**
+     * Bytes currently held by the cache, excluding the reuse pool
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Bounded pool of mutable bitmaps that new decodes can draw into rather
+ * than allocating, oldest first out when over budget.
+ */
+final class BitmapPool {
+
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+    private final int mMaxBytes;
+    private int mBytes;
+    private int mReuseCount;
+
+    BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getByteCount() > mMaxBytes) {
+            //Cannot be decoded into, or would never fit
+            bitmap.recycle();
+            return;
+        }
+
+        mBitmaps.add(bitmap);
+        mBytes += bitmap.getByteCount();
+        while (mBytes > mMaxBytes) {
+            Bitmap oldest = mBitmaps.remove(0);
+            mBytes -= oldest.getByteCount();
+            oldest.recycle();
+        }
+    }
+
+    synchronized Bitmap getExact(int width, int height) {
+        for (int i=0; i < mBitmaps.size(); i++) {
+            Bitmap candidate = mBitmaps.get(i);
+            if (candidate.getWidth() == width && candidate.getHeight() == height
+                    && candidate.getConfig() == Bitmap.Config.ARGB_8888) {
+                return take(i);
+            }
+        }
+        return null;
+    }
+
+    synchronized Bitmap getAtLeast(int byteCount) {
+        int best = -1;
+        for (int i=0; i < mBitmaps.size(); i++) {
+            int size = mBitmaps.get(i).getByteCount();
+            //Smallest bitmap that fits, so big ones stay for big decodes
+            if (size >= byteCount && (best < 0 || size < mBitmaps.get(best).getByteCount())) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : take(best);
+    }
+
+    private Bitmap take(int index) {
+        Bitmap bitmap = mBitmaps.remove(index);
+        mBytes -= bitmap.getByteCount();
+        return bitmap;
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    synchronized void recordReuse() {
+        mReuseCount++;
+    }
+
+    synchronized int reuseCount() {
+        return mReuseCount;
+    }
+}
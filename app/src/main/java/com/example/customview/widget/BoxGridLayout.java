@@ -24,22 +24,95 @@ package com.example.customview.widget;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.DataSetObserver;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.widget.Adapter;
+import android.widget.ListAdapter;
+import android.widget.OverScroller;
 import com.example.customview.R;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ViewGroup that arranges its children into a grid of square cells with
+ * separator lines drawn between them.
+ *
+ * Children may be supplied directly (e.g. from XML), in which case the grid
+ * is limited to numColumns x numColumns cells. Alternatively, an adapter may
+ * be attached with {@link #setAdapter(ListAdapter)}, in which case the grid
+ * scrolls vertically and only the visible cells (plus a small margin) are
+ * backed by live views; the rest are recycled through a scrap pool keyed by
+ * the adapter's view type.
+ *
+ * Direct children can also be driven from a model list with
+ * {@link #setCellBinder(CellBinder)} and {@link #submitCells(List)}, which
+ * diffs each new list against the previous one and reuses existing views.
+ */
 public class BoxGridLayout extends ViewGroup {
 
     private static final int DEFAULT_COUNT = 3;
+    //Number of rows kept alive above and below the viewport in adapter mode
+    private static final int OFFSCREEN_ROWS = 1;
+
+    /* Instrumentation */
+    private static final ViewMetrics.Timer MEASURE_TIMER = ViewMetrics.timer("BoxGridLayout.onMeasure");
+    private static final ViewMetrics.Timer LAYOUT_TIMER = ViewMetrics.timer("BoxGridLayout.onLayout");
+    private static final ViewMetrics.Timer DRAW_TIMER = ViewMetrics.timer("BoxGridLayout.dispatchDraw");
+    private static final ViewMetrics.Timer GRID_LINES_TIMER = ViewMetrics.timer("BoxGridLayout.updateGridLines");
+    private static final ViewMetrics.Timer FILL_TIMER = ViewMetrics.timer("BoxGridLayout.fillGrid");
 
     private Paint mGridPaint;
+    /* Separator Geometry */
+    private float[] mGridLines;
+    private int mGridLineCount;
+    private int mGridHeight;
+    private boolean mGridDirty = true;
+    private boolean mSeparatorCacheEnabled;
+    private Bitmap mSeparatorCache;
 
     private int mColumnCount;
     private int mMaxChildren;
+    //Span and track layout for direct children
+    private GridPlacement mPlacement;
+
+    /* Adapter Mode */
+    private ListAdapter mAdapter;
+    private DataSetObserver mDataSetObserver;
+    private final SparseArray<ArrayList<View>> mScrapViews = new SparseArray<ArrayList<View>>();
+    //Adapter position of the view at child index 0
+    private int mFirstPosition;
+    private int mBlockDimension;
+
+    /* Bound Cells */
+    private CellBinder<Object> mCellBinder;
+    private List<Object> mCells;
+    //Scratch for submitCells(), reused between calls
+    private final HashMap<Object, Integer> mCellPositions = new HashMap<Object, Integer>();
+    private View[] mOldCellViews, mNewCellViews;
+
+    /* Pass Statistics */
+    private int mMeasuredChildCount;
+    private int mLaidOutChildCount;
+
+    /* Scrolling */
+    private OverScroller mScroller;
+    private VelocityTracker mVelocityTracker;
+    private int mTouchSlop;
+    private int mMinimumVelocity, mMaximumVelocity;
+    private float mLastMotionY;
+    private boolean mIsBeingDragged;
 
     public BoxGridLayout(Context context) {
         this(context, null);
@@ -58,17 +131,254 @@ public class BoxGridLayout extends ViewGroup {
         int strokeColor = a.getColor(R.styleable.BoxGridLayout_separatorColor, Color.WHITE);
         mColumnCount = a.getInteger(R.styleable.BoxGridLayout_numColumns, DEFAULT_COUNT);
         mMaxChildren = mColumnCount * mColumnCount;
+        mPlacement = new GridPlacement(mColumnCount, mColumnCount);
 
         a.recycle();
 
-        mGridPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        //Separators are axis-aligned, so anti-aliasing buys nothing
+        mGridPaint = new Paint();
         mGridPaint.setStyle(Paint.Style.STROKE);
         mGridPaint.setColor(strokeColor);
         mGridPaint.setStrokeWidth(strokeWidth);
+
+        mScroller = new OverScroller(context);
+        ViewConfiguration config = ViewConfiguration.get(context);
+        mTouchSlop = config.getScaledTouchSlop();
+        mMinimumVelocity = config.getScaledMinimumFlingVelocity();
+        mMaximumVelocity = config.getScaledMaximumFlingVelocity();
+    }
+
+    /**
+     * Back the grid with an adapter rather than direct children. Any
+     * existing children are removed, and the grid becomes vertically
+     * scrollable. Pass null to return to direct-children mode.
+     */
+    public void setAdapter(ListAdapter adapter) {
+        if (mAdapter != null && mDataSetObserver != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+        }
+
+        removeAllViewsInLayout();
+        clearScrap();
+        mCells = null;
+        mFirstPosition = 0;
+        mScroller.forceFinished(true);
+        scrollTo(0, 0);
+
+        mAdapter = adapter;
+        mGridDirty = true;
+        if (mAdapter != null) {
+            if (mDataSetObserver == null) {
+                mDataSetObserver = new AdapterDataSetObserver();
+            }
+            mAdapter.registerDataSetObserver(mDataSetObserver);
+        }
+
+        requestLayout();
+        invalidate();
+    }
+
+    public ListAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    /**
+     * Set the binder used by {@link #submitCells(List)} to create and
+     * bind direct child views from model items.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void setCellBinder(CellBinder<T> binder) {
+        mCellBinder = (CellBinder<Object>) binder;
+    }
+
+    /**
+     * Replace the direct children with views for the given model items.
+     *
+     * The new list is diffed against the last submitted one by item key:
+     * items still present keep their view (moving it if needed) and are
+     * only rebound if their contents changed; views of removed items are
+     * recycled for inserted items before any new views are created. Only
+     * views whose index changed are moved, and all changes settle in a
+     * single layout pass; a submission that changes nothing requests none.
+     * Any children that were not created by this method are replaced.
+     */
+    public void submitCells(List<?> cells) {
+        if (mAdapter != null) {
+            throw new UnsupportedOperationException("submitCells is not supported while BoxGridLayout has an adapter");
+        }
+        if (mCellBinder == null) {
+            throw new IllegalStateException("setCellBinder() must be called before submitCells()");
+        }
+        if (cells.size() > mMaxChildren) {
+            throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
+        }
+
+        final CellBinder<Object> binder = mCellBinder;
+        if (mCells == null || mCells.size() != getChildCount()) {
+            //Children are not ours to diff against; start over
+            removeAllViewsInLayout();
+            mCells = new ArrayList<Object>();
+        }
+        if (mOldCellViews == null) {
+            mOldCellViews = new View[mMaxChildren];
+            mNewCellViews = new View[mMaxChildren];
+        }
+
+        final List<Object> oldCells = mCells;
+        final int oldCount = oldCells.size();
+        final int newCount = cells.size();
+        final HashMap<Object, Integer> oldPositions = mCellPositions;
+        final View[] oldViews = mOldCellViews;
+        final View[] newViews = mNewCellViews;
+        for (int i=0; i < oldCount; i++) {
+            oldPositions.put(binder.getItemKey(oldCells.get(i)), i);
+            oldViews[i] = getChildAt(i);
+        }
+
+        //Keep the views of items that survived, rebinding only changed ones
+        for (int j=0; j < newCount; j++) {
+            Object item = cells.get(j);
+            Integer i = oldPositions.remove(binder.getItemKey(item));
+            if (i != null) {
+                newViews[j] = oldViews[i];
+                oldViews[i] = null;
+                if (!binder.areContentsTheSame(oldCells.get(i), item)) {
+                    binder.bindView(newViews[j], item);
+                }
+            }
+        }
+        oldPositions.clear();
+
+        //Inserted items take over views of removed items before creating any
+        boolean changed = false;
+        int recycle = 0;
+        for (int j=0; j < newCount; j++) {
+            if (newViews[j] != null) {
+                continue;
+            }
+            while (recycle < oldCount && oldViews[recycle] == null) {
+                recycle++;
+            }
+            if (recycle < oldCount) {
+                newViews[j] = oldViews[recycle];
+                oldViews[recycle] = null;
+                //The removed item's row, column and spans do not carry over
+                changed |= resetPlacement(newViews[j]);
+            } else {
+                newViews[j] = binder.createView(this);
+            }
+            binder.bindView(newViews[j], cells.get(j));
+        }
+
+        //Drop the views nothing took over; from the end, so indices hold
+        for (int i = oldCount - 1; i >= 0; i--) {
+            if (oldViews[i] != null) {
+                removeViewsInLayout(i, 1);
+                oldViews[i] = null;
+                changed = true;
+            }
+        }
+
+        //Only move or add the views whose index changed
+        for (int j=0; j < newCount; j++) {
+            View child = newViews[j];
+            newViews[j] = null;
+            if (j < getChildCount() && getChildAt(j) == child) {
+                continue;
+            }
+            changed = true;
+            if (child.getParent() == this) {
+                detachViewFromParent(child);
+                attachViewToParent(child, j, child.getLayoutParams());
+            } else {
+                ViewGroup.LayoutParams lp = child.getLayoutParams();
+                if (lp == null) {
+                    lp = generateDefaultLayoutParams();
+                } else if (!checkLayoutParams(lp)) {
+                    lp = generateLayoutParams(lp);
+                }
+                addViewInLayout(child, j, lp, true);
+            }
+        }
+
+        oldCells.clear();
+        oldCells.addAll(cells);
+
+        if (changed) {
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    /*
+     * Return a recycled cell to flowing into the next free cell
+     */
+    private static boolean resetPlacement(View child) {
+        LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.row == LayoutParams.UNSPECIFIED && lp.column == LayoutParams.UNSPECIFIED
+                && lp.rowSpan == 1 && lp.columnSpan == 1) {
+            return false;
+        }
+        lp.row = LayoutParams.UNSPECIFIED;
+        lp.column = LayoutParams.UNSPECIFIED;
+        lp.rowSpan = 1;
+        lp.columnSpan = 1;
+        return true;
+    }
+
+    /**
+     * Adapter position of the first live cell view, or 0 when
+     * not in adapter mode.
+     */
+    public int getFirstPosition() {
+        return mFirstPosition;
+    }
+
+    /**
+     * Set relative widths for the columns of a direct-children grid, one
+     * weight per column. Pass null to return to uniform columns.
+     */
+    public void setColumnWeights(float... weights) {
+        mPlacement.setColumnWeights(weights);
+        requestLayout();
+    }
+
+    /**
+     * Set relative heights for the rows of a direct-children grid, one
+     * weight per row. Pass null to return to uniform rows.
+     */
+    public void setRowWeights(float... weights) {
+        mPlacement.setRowWeights(weights);
+        requestLayout();
+    }
+
+    /**
+     * Number of children whose measure() was actually invoked during the
+     * most recent measure pass; children whose spec is unchanged and
+     * that have not requested layout are skipped.
+     */
+    public int getLastMeasuredChildCount() {
+        return mMeasuredChildCount;
+    }
+
+    /**
+     * Number of children whose layout() was actually invoked during the
+     * most recent layout pass (or scroll, in adapter mode); children that
+     * are already in place and have not requested layout are skipped.
+     */
+    public int getLastLaidOutChildCount() {
+        return mLaidOutChildCount;
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = ViewMetrics.start();
+        measureGrid(widthMeasureSpec, heightMeasureSpec);
+        MEASURE_TIMER.stop(start);
+    }
+
+    private void measureGrid(int widthMeasureSpec, int heightMeasureSpec) {
+        mMeasuredChildCount = 0;
         int widthSize, heightSize;
 
         //Get the width based on the measure specs
@@ -77,86 +387,756 @@ public class BoxGridLayout extends ViewGroup {
         //Get the height based on measure specs
         heightSize = getDefaultSize(0, heightMeasureSpec);
 
+        if (mAdapter != null) {
+            //Adapter mode fills the width and scrolls vertically
+            int blockDimension = widthSize / mColumnCount;
+            if (blockDimension != mBlockDimension) {
+                mBlockDimension = blockDimension;
+                mGridDirty = true;
+            }
+            int blockSpec = MeasureSpec.makeMeasureSpec(mBlockDimension, MeasureSpec.EXACTLY);
+            measureCells(blockSpec);
+
+            //Ask for the full content height; scroll whatever the parent clamps off
+            heightSize = resolveSize(getRowCount() * mBlockDimension, heightMeasureSpec);
+            setMeasuredDimension(widthSize, heightSize);
+            return;
+        }
+
         int majorDimension = Math.min(widthSize, heightSize);
         //Measure all child views
         int blockDimension = majorDimension / mColumnCount;
-        int blockSpec = MeasureSpec.makeMeasureSpec(blockDimension, MeasureSpec.EXACTLY);
-        measureChildren(blockSpec, blockSpec);
+        mBlockDimension = blockDimension;
+        updatePlacement(blockDimension * mColumnCount);
+        for (int i=0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() != GONE) {
+                int widthSpec = MeasureSpec.makeMeasureSpec(
+                        mPlacement.getCellRight(i) - mPlacement.getCellLeft(i), MeasureSpec.EXACTLY);
+                int heightSpec = MeasureSpec.makeMeasureSpec(
+                        mPlacement.getCellBottom(i) - mPlacement.getCellTop(i), MeasureSpec.EXACTLY);
+                measureCell(child, widthSpec, heightSpec);
+            }
+        }
 
         //MUST call this to save our own dimensions
         setMeasuredDimension(majorDimension, majorDimension);
     }
 
+    /*
+     * Feed each child's requested position and span to the placement
+     * engine, which only rebuilds its tables when one of them (or the
+     * child count, or the grid size) actually changed.
+     */
+    private void updatePlacement(int gridSize) {
+        final int count = getChildCount();
+        mPlacement.setChildCount(count);
+        for (int i=0; i < count; i++) {
+            LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+            mPlacement.setRequest(i, lp.row, lp.column, lp.rowSpan, lp.columnSpan);
+        }
+
+        boolean placementChanged = mPlacement.updatePlacement();
+        boolean tracksChanged = mPlacement.setTrackSize(gridSize);
+        if (placementChanged || tracksChanged) {
+            mGridDirty = true;
+        }
+    }
+
+    private void measureCells(int blockSpec) {
+        for (int i=0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() != GONE) {
+                measureCell(child, blockSpec, blockSpec);
+            }
+        }
+    }
+
+    /*
+     * Cells are always measured with EXACTLY specs, so a child only
+     * needs measuring again if its specs changed since it was last
+     * measured or if the child itself has requested a new layout.
+     */
+    private void measureCell(View child, int widthSpec, int heightSpec) {
+        LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (child.isLayoutRequested() || lp.widthMeasureSpec != widthSpec
+                || lp.heightMeasureSpec != heightSpec) {
+            child.measure(widthSpec, heightSpec);
+            lp.widthMeasureSpec = widthSpec;
+            lp.heightMeasureSpec = heightSpec;
+            mMeasuredChildCount++;
+        }
+    }
+
+    /*
+     * Only lay out a cell if it has moved, resized, or asked for layout
+     */
+    private void layoutCell(View child, int left, int top, int right, int bottom) {
+        if (child.isLayoutRequested()
+                || child.getLeft() != left || child.getTop() != top
+                || child.getRight() != right || child.getBottom() != bottom) {
+            child.layout(left, top, right, bottom);
+            mLaidOutChildCount++;
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        int row, col, left, top;
+        long start = ViewMetrics.start();
+        layoutGrid();
+        LAYOUT_TIMER.stop(start);
+    }
+
+    private void layoutGrid() {
+        mLaidOutChildCount = 0;
+        if (mAdapter != null) {
+            //Keep the scroll position valid if our size or the data changed
+            int scrollY = Math.min(getScrollY(), getMaxScrollY());
+            if (scrollY != getScrollY()) {
+                scrollTo(0, scrollY);
+            }
+            fillGrid();
+            return;
+        }
+
         for (int i=0; i < getChildCount(); i++) {
-            row = i / mColumnCount;
-            col = i % mColumnCount;
             View child = getChildAt(i);
-            left = col * child.getMeasuredWidth();
-            top = row * child.getMeasuredHeight();
+            if (child.getVisibility() != GONE) {
+                layoutCell(child, mPlacement.getCellLeft(i), mPlacement.getCellTop(i),
+                        mPlacement.getCellRight(i), mPlacement.getCellBottom(i));
+            }
+        }
+    }
+
+    /*
+     * Make the set of live children match the adapter positions inside the
+     * viewport (plus OFFSCREEN_ROWS on either side). Children always hold a
+     * contiguous run of positions starting at mFirstPosition, so cells that
+     * scroll out are peeled off either end into the scrap pool and new cells
+     * are attached at the opposite end.
+     */
+    private void fillGrid() {
+        final int count = mAdapter.getCount();
+        final int block = mBlockDimension;
+        if (count == 0 || block <= 0) {
+            scrapAllChildren();
+            mFirstPosition = 0;
+            return;
+        }
+
+        int rowCount = getRowCount();
+        int scrollY = getScrollY();
+        int firstRow = Math.max(0, scrollY / block - OFFSCREEN_ROWS);
+        int lastRow = Math.min(rowCount - 1, (scrollY + getHeight() - 1) / block + OFFSCREEN_ROWS);
+        int first = firstRow * mColumnCount;
+        int last = Math.min(count - 1, (lastRow + 1) * mColumnCount - 1);
+
+        int childCount = getChildCount();
+        if (childCount == 0 || last < mFirstPosition || first > mFirstPosition + childCount - 1) {
+            //No overlap with what we have; recycle everything
+            scrapAllChildren();
+            mFirstPosition = first;
+        } else {
+            //Trim cells that scrolled off the top
+            while (getChildCount() > 0 && mFirstPosition < first) {
+                scrapChildAt(0);
+                mFirstPosition++;
+            }
+            //Trim cells that scrolled off the bottom
+            while (getChildCount() > 0 && mFirstPosition + getChildCount() - 1 > last) {
+                scrapChildAt(getChildCount() - 1);
+            }
+        }
+
+        //Fill in newly exposed cells at the top
+        while (mFirstPosition > first) {
+            mFirstPosition--;
+            obtainCell(mFirstPosition, 0);
+        }
+        //...and at the bottom
+        while (mFirstPosition + getChildCount() - 1 < last) {
+            obtainCell(mFirstPosition + getChildCount(), -1);
+        }
+
+        int row, col, left, top;
+        for (int i=0; i < getChildCount(); i++) {
+            int position = mFirstPosition + i;
+            row = position / mColumnCount;
+            col = position % mColumnCount;
+            left = col * block;
+            top = row * block;
+
+            layoutCell(getChildAt(i), left, top, left + block, top + block);
+        }
+    }
+
+    /*
+     * Get a bound view for the given adapter position, reusing a scrap
+     * view of the same type when one is available, and attach it at the
+     * given child index.
+     */
+    private void obtainCell(int position, int index) {
+        int viewType = mAdapter.getItemViewType(position);
+        View scrap = getScrapView(viewType);
+        View child = mAdapter.getView(position, scrap, this);
+
+        LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp == null) {
+            lp = generateDefaultLayoutParams();
+        } else if (!checkLayoutParams(lp)) {
+            lp = generateLayoutParams(lp);
+        }
+        lp.viewType = viewType;
+
+        if (child == scrap) {
+            attachViewToParent(child, index, lp);
+        } else {
+            if (scrap != null) {
+                //Adapter did not reuse the view we offered; keep it for later
+                addScrapView(scrap, viewType);
+            }
+            addViewInLayout(child, index, lp, true);
+        }
+
+        int blockSpec = MeasureSpec.makeMeasureSpec(mBlockDimension, MeasureSpec.EXACTLY);
+        measureCell(child, blockSpec, blockSpec);
+    }
+
+    private void scrapChildAt(int index) {
+        View child = getChildAt(index);
+        detachViewFromParent(index);
+        addScrapView(child, ((LayoutParams) child.getLayoutParams()).viewType);
+    }
+
+    private void scrapAllChildren() {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            scrapChildAt(i);
+        }
+    }
+
+    private void addScrapView(View scrap, int viewType) {
+        if (viewType == Adapter.IGNORE_ITEM_VIEW_TYPE) {
+            //Adapter asked us not to recycle this one
+            removeDetachedView(scrap, false);
+            return;
+        }
+
+        ArrayList<View> scrapViews = mScrapViews.get(viewType);
+        if (scrapViews == null) {
+            scrapViews = new ArrayList<View>();
+            mScrapViews.put(viewType, scrapViews);
+        }
+        scrapViews.add(scrap);
+    }
+
+    private View getScrapView(int viewType) {
+        ArrayList<View> scrapViews = mScrapViews.get(viewType);
+        if (scrapViews == null || scrapViews.isEmpty()) {
+            return null;
+        }
+        return scrapViews.remove(scrapViews.size() - 1);
+    }
+
+    private void clearScrap() {
+        for (int i=0; i < mScrapViews.size(); i++) {
+            ArrayList<View> scrapViews = mScrapViews.valueAt(i);
+            for (int j=0; j < scrapViews.size(); j++) {
+                removeDetachedView(scrapViews.get(j), false);
+            }
+        }
+        mScrapViews.clear();
+    }
+
+    private int getRowCount() {
+        if (mAdapter == null) {
+            return mColumnCount;
+        }
+        return (mAdapter.getCount() + mColumnCount - 1) / mColumnCount;
+    }
+
+    private int getMaxScrollY() {
+        if (mAdapter == null) {
+            return 0;
+        }
+        return Math.max(0, getRowCount() * mBlockDimension - getHeight());
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mScroller.forceFinished(true);
+        clearScrap();
+        releaseSeparatorCache();
+    }
+
+    /* Scrolling (adapter mode only) */
 
-            child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+    @Override
+    public void scrollTo(int x, int y) {
+        if (mAdapter == null) {
+            super.scrollTo(x, y);
+            return;
+        }
+        //Only vertical scrolling, clamped to the content
+        y = Math.max(0, Math.min(y, getMaxScrollY()));
+        super.scrollTo(0, y);
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        if (mAdapter != null && !isLayoutRequested()) {
+            mLaidOutChildCount = 0;
+            long start = ViewMetrics.start();
+            fillGrid();
+            FILL_TIMER.stop(start);
+        }
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(0, mScroller.getCurrY());
+            invalidate();
+        }
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        if (mAdapter == null) {
+            return super.computeVerticalScrollRange();
+        }
+        return Math.max(getHeight(), getRowCount() * mBlockDimension);
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        if (mAdapter == null) {
+            return super.onInterceptTouchEvent(ev);
+        }
+
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mLastMotionY = ev.getY();
+                //Catch the grid if it is still flinging
+                mIsBeingDragged = !mScroller.isFinished();
+                mScroller.forceFinished(true);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (Math.abs(ev.getY() - mLastMotionY) > mTouchSlop) {
+                    mIsBeingDragged = true;
+                    mLastMotionY = ev.getY();
+                    if (getParent() != null) {
+                        getParent().requestDisallowInterceptTouchEvent(true);
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mIsBeingDragged = false;
+                break;
+        }
+
+        return mIsBeingDragged;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mAdapter == null) {
+            return super.onTouchEvent(event);
+        }
+
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mScroller.forceFinished(true);
+                mLastMotionY = event.getY();
+                break;
+            case MotionEvent.ACTION_MOVE:
+                float deltaY = mLastMotionY - event.getY();
+                if (!mIsBeingDragged && Math.abs(deltaY) > mTouchSlop) {
+                    mIsBeingDragged = true;
+                    if (getParent() != null) {
+                        getParent().requestDisallowInterceptTouchEvent(true);
+                    }
+                }
+                if (mIsBeingDragged) {
+                    mLastMotionY = event.getY();
+                    scrollBy(0, (int) deltaY);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mIsBeingDragged) {
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+                    int velocityY = (int) mVelocityTracker.getYVelocity();
+                    if (Math.abs(velocityY) > mMinimumVelocity) {
+                        mScroller.fling(0, getScrollY(), 0, -velocityY, 0, 0, 0, getMaxScrollY());
+                        invalidate();
+                    }
+                }
+                //Fall through
+            case MotionEvent.ACTION_CANCEL:
+                mIsBeingDragged = false;
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+                break;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the index of the grid cell under the given point, in this
+     * view's coordinates. In adapter mode this is the adapter position.
+     * Returns -1 if the point does not fall on a cell.
+     */
+    public int cellAt(float x, float y) {
+        final int block = mBlockDimension;
+        if (block <= 0) {
+            return -1;
+        }
+
+        x += getScrollX();
+        y += getScrollY();
+        if (mAdapter == null) {
+            //Tracks may be weighted; look them up in the offset tables
+            int row = mPlacement.rowAt(y);
+            int col = mPlacement.columnAt(x);
+            return (row < 0 || col < 0) ? -1 : row * mColumnCount + col;
+        }
+
+        if (x < 0 || y < 0 || x >= mColumnCount * block) {
+            return -1;
+        }
+
+        int row = (int) y / block;
+        int col = (int) x / block;
+        int cell = row * mColumnCount + col;
+
+        return (cell < mAdapter.getCount()) ? cell : -1;
+    }
+
+    /**
+     * Return the index of the child view under the given point, in this
+     * view's coordinates, or -1 if no child occupies that cell. This is
+     * pure arithmetic on the cell geometry and does not scan the children,
+     * so it ignores any translation or scale applied to a cell. Touch
+     * dispatch is left to ViewGroup, which does account for them.
+     */
+    public int childIndexAt(float x, float y) {
+        int cell = cellAt(x, y);
+        if (cell < 0) {
+            return -1;
+        }
+
+        if (mAdapter == null) {
+            //Spanning children own several cells
+            return mPlacement.getOccupant(cell);
+        }
+
+        int index = cell - mFirstPosition;
+        return (index >= 0 && index < getChildCount()) ? index : -1;
+    }
+
+    /**
+     * Render the separator lines once into an offscreen bitmap and blit
+     * that on each frame, rather than stroking the lines every time.
+     * Costs one bitmap the size of the view (plus a row in adapter mode).
+     */
+    public void setSeparatorCacheEnabled(boolean enabled) {
+        if (mSeparatorCacheEnabled != enabled) {
+            mSeparatorCacheEnabled = enabled;
+            releaseSeparatorCache();
+            invalidate();
+        }
+    }
+
+    public boolean isSeparatorCacheEnabled() {
+        return mSeparatorCacheEnabled;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mGridDirty = true;
+    }
+
+    /*
+     * Compute the separator geometry as a flat array of line segments for
+     * a single drawLines() call. In direct-children mode this comes from
+     * the placement tables. In adapter mode the pattern repeats every row, so we
+     * only build enough rows to cover the viewport plus one, and slide it
+     * by whole rows as the grid scrolls.
+     */
+    private void updateGridLines() {
+        mGridDirty = false;
+        mGridLineCount = 0;
+
+        final int block = mBlockDimension;
+        if (block <= 0) {
+            return;
+        }
+
+        if (mAdapter == null) {
+            //Boundaries follow the tracks and skip over spanning children
+            mGridHeight = getHeight();
+            int size = mPlacement.getMaxSeparatorFloats();
+            if (mGridLines == null || mGridLines.length < size) {
+                mGridLines = new float[size];
+            }
+            mGridLineCount = mPlacement.buildSeparators(mGridLines);
+            releaseSeparatorCache();
+            return;
+        }
+
+        int gridWidth = mColumnCount * block;
+        int gridHeight = ((getHeight() + block - 1) / block + 1) * block;
+        mGridHeight = gridHeight;
+
+        int lineCount = (mColumnCount + 1) + (gridHeight / block + 1);
+        if (mGridLines == null || mGridLines.length < lineCount * 4) {
+            mGridLines = new float[lineCount * 4];
+        }
+
+        int n = 0;
+        for (int i=0; i <= gridWidth; i += block) {
+            mGridLines[n++] = i;
+            mGridLines[n++] = 0;
+            mGridLines[n++] = i;
+            mGridLines[n++] = gridHeight;
+        }
+        for (int i=0; i <= gridHeight; i += block) {
+            mGridLines[n++] = 0;
+            mGridLines[n++] = i;
+            mGridLines[n++] = gridWidth;
+            mGridLines[n++] = i;
+        }
+        mGridLineCount = n;
+
+        releaseSeparatorCache();
+    }
+
+    private void drawSeparators(Canvas canvas) {
+        if (!mSeparatorCacheEnabled) {
+            canvas.drawLines(mGridLines, 0, mGridLineCount, mGridPaint);
+            return;
+        }
+
+        if (mSeparatorCache == null) {
+            //Pad by the stroke so lines on the far edges are not clipped
+            int pad = (int) Math.ceil(mGridPaint.getStrokeWidth() / 2f);
+            mSeparatorCache = Bitmap.createBitmap(getWidth() + pad, mGridHeight + pad,
+                    Bitmap.Config.ARGB_8888);
+            Canvas cacheCanvas = new Canvas(mSeparatorCache);
+            cacheCanvas.drawLines(mGridLines, 0, mGridLineCount, mGridPaint);
+        }
+        canvas.drawBitmap(mSeparatorCache, 0, 0, null);
+    }
+
+    private void releaseSeparatorCache() {
+        if (mSeparatorCache != null) {
+            mSeparatorCache.recycle();
+            mSeparatorCache = null;
         }
     }
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
+        long start = ViewMetrics.start();
+        drawGrid(canvas);
+        DRAW_TIMER.stop(start);
+    }
+
+    private void drawGrid(Canvas canvas) {
         //Let the framework do its thing
         super.dispatchDraw(canvas);
 
-        //Draw the grid lines
-        for (int i=0; i <= getWidth(); i += (getWidth() / mColumnCount)) {
-            canvas.drawLine(i, 0, i, getHeight(), mGridPaint);
+        if (mGridDirty) {
+            long start = ViewMetrics.start();
+            updateGridLines();
+            GRID_LINES_TIMER.stop(start);
         }
-        for (int i=0; i <= getHeight(); i += (getHeight() / mColumnCount)) {
-            canvas.drawLine(0, i, getWidth(), i, mGridPaint);
+        if (mGridLineCount == 0 || getWidth() == 0) {
+            return;
         }
+
+        if (mAdapter != null) {
+            //Canvas is already translated by the scroll; snap the
+            // repeating pattern to the first visible row boundary
+            int top = getScrollY();
+            int contentBottom = getRowCount() * mBlockDimension;
+            canvas.save();
+            canvas.clipRect(0, top, getWidth(), Math.min(top + getHeight(), contentBottom + 1));
+            canvas.translate(0, top - (top % mBlockDimension));
+            drawSeparators(canvas);
+            canvas.restore();
+            return;
+        }
+
+        //Draw the grid lines
+        drawSeparators(canvas);
     }
 
-    @Override
-    public void addView(View child) {
+    private void ensureCanAddChild() {
+        if (mAdapter != null) {
+            throw new UnsupportedOperationException("addView is not supported while BoxGridLayout has an adapter");
+        }
         if (getChildCount() > mMaxChildren-1) {
             throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
         }
+    }
+
+    @Override
+    public void addView(View child) {
+        ensureCanAddChild();
 
         super.addView(child);
     }
 
     @Override
     public void addView(View child, int index) {
-        if (getChildCount() > mMaxChildren-1) {
-            throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
-        }
+        ensureCanAddChild();
 
         super.addView(child, index);
     }
 
     @Override
-    public void addView(View child, int index, LayoutParams params) {
-        if (getChildCount() > mMaxChildren-1) {
-            throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
-        }
+    public void addView(View child, int index, ViewGroup.LayoutParams params) {
+        ensureCanAddChild();
 
         super.addView(child, index, params);
     }
 
     @Override
-    public void addView(View child, LayoutParams params) {
-        if (getChildCount() > mMaxChildren-1) {
-            throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
-        }
+    public void addView(View child, ViewGroup.LayoutParams params) {
+        ensureCanAddChild();
 
         super.addView(child, params);
     }
 
     @Override
     public void addView(View child, int width, int height) {
-        if (getChildCount() > mMaxChildren-1) {
-            throw new IllegalStateException("BoxGridLayout cannot have more than "+mMaxChildren+" direct children");
-        }
+        ensureCanAddChild();
 
         super.addView(child, width, height);
     }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        return new LayoutParams(p);
+    }
+
+    /**
+     * Per-child layout information for BoxGridLayout. Row, column and
+     * spans only apply to direct children; adapter cells are always a
+     * single block in fill order.
+     */
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+        public static final int UNSPECIFIED = GridPlacement.UNSPECIFIED;
+
+        /**
+         * Fixed cell row, or UNSPECIFIED to flow into the next free cell
+         */
+        public int row = UNSPECIFIED;
+        /**
+         * Fixed cell column, or UNSPECIFIED to flow into the next free cell
+         */
+        public int column = UNSPECIFIED;
+        public int rowSpan = 1;
+        public int columnSpan = 1;
+
+        //Adapter view type this child was created for, used for recycling
+        int viewType;
+        //Specs this child was last measured with
+        int widthMeasureSpec, heightMeasureSpec;
+
+        public LayoutParams(Context c, AttributeSet attrs) {
+            super(c, attrs);
+
+            TypedArray a = c.obtainStyledAttributes(attrs, R.styleable.BoxGridLayout_Layout);
+            row = a.getInteger(R.styleable.BoxGridLayout_Layout_layout_row, UNSPECIFIED);
+            column = a.getInteger(R.styleable.BoxGridLayout_Layout_layout_column, UNSPECIFIED);
+            rowSpan = a.getInteger(R.styleable.BoxGridLayout_Layout_layout_rowSpan, 1);
+            columnSpan = a.getInteger(R.styleable.BoxGridLayout_Layout_layout_columnSpan, 1);
+            a.recycle();
+        }
+
+        public LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+            if (source instanceof LayoutParams) {
+                LayoutParams lp = (LayoutParams) source;
+                row = lp.row;
+                column = lp.column;
+                rowSpan = lp.rowSpan;
+                columnSpan = lp.columnSpan;
+            }
+        }
+    }
+
+    /**
+     * Creates and binds the direct child views for {@link #submitCells(List)}.
+     */
+    public static abstract class CellBinder<T> {
+
+        public abstract View createView(ViewGroup parent);
+
+        public abstract void bindView(View view, T item);
+
+        /**
+         * Identity of an item across submissions. Defaults to the item
+         * itself, so items are matched using equals() and hashCode().
+         */
+        public Object getItemKey(T item) {
+            return item;
+        }
+
+        /**
+         * Whether an item matched by key can keep its view without
+         * being rebound.
+         */
+        public boolean areContentsTheSame(T oldItem, T newItem) {
+            return oldItem == null ? newItem == null : oldItem.equals(newItem);
+        }
+    }
+
+    private class AdapterDataSetObserver extends DataSetObserver {
+        @Override
+        public void onChanged() {
+            //Positions may have moved; rebind everything on the next layout
+            scrapAllChildren();
+            requestLayout();
+            invalidate();
+        }
+
+        @Override
+        public void onInvalidated() {
+            scrapAllChildren();
+            clearScrap();
+            requestLayout();
+            invalidate();
+        }
+    }
 }
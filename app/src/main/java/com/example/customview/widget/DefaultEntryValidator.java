@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.util.Patterns;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Validator used by {@link EntryFormView} unless another is set. Requires
+ * both fields, restricts names to letters and common punctuation, checks
+ * the email format and rejects emails from a local blocklist of domains
+ * (subdomains of a blocked domain are blocked too).
+ */
+public class DefaultEntryValidator implements EntryValidator {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[\\p{L} .'-]+");
+
+    private final Set<String> mBlockedDomains;
+
+    public DefaultEntryValidator() {
+        this(Collections.<String>emptySet());
+    }
+
+    public DefaultEntryValidator(Collection<String> blockedDomains) {
+        mBlockedDomains = new HashSet<String>();
+        for (String domain : blockedDomains) {
+            mBlockedDomains.add(domain.toLowerCase(Locale.US));
+        }
+    }
+
+    @Override
+    public CharSequence validateName(String name) {
+        String trimmed = name.trim();
+        if (trimmed.length() == 0) {
+            return "Name is required";
+        }
+        if (!NAME_PATTERN.matcher(trimmed).matches()) {
+            return "Name contains invalid characters";
+        }
+        return null;
+    }
+
+    @Override
+    public CharSequence validateEmail(String email) {
+        String trimmed = email.trim();
+        if (trimmed.length() == 0) {
+            return "Email is required";
+        }
+        if (!Patterns.EMAIL_ADDRESS.matcher(trimmed).matches()) {
+            return "Invalid email address";
+        }
+
+        //Check the domain and each parent domain against the blocklist
+        String domain = trimmed.substring(trimmed.lastIndexOf('@') + 1).toLowerCase(Locale.US);
+        while (domain.length() > 0) {
+            if (mBlockedDomains.contains(domain)) {
+                return "Email domain is not allowed";
+            }
+            int dot = domain.indexOf('.');
+            domain = (dot < 0) ? "" : domain.substring(dot + 1);
+        }
+        return null;
+    }
+}
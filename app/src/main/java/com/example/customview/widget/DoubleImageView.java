@@ -24,11 +24,15 @@ package com.example.customview.widget;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.text.Layout;
+import android.os.Looper;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
@@ -38,6 +42,12 @@ import com.example.customview.R;
 
 public class DoubleImageView extends View {
 
+    /* Instrumentation */
+    private static final ViewMetrics.Timer MEASURE_TIMER = ViewMetrics.timer("DoubleImageView.onMeasure");
+    private static final ViewMetrics.Timer DRAW_TIMER = ViewMetrics.timer("DoubleImageView.onDraw");
+    private static final ViewMetrics.Timer BOUNDS_TIMER = ViewMetrics.timer("DoubleImageView.updateContentBounds");
+    private static final ViewMetrics.Timer TEXT_TIMER = ViewMetrics.timer("DoubleImageView.updateTextLayout");
+
     /* Image Contents */
     private Drawable mLeftDrawable, mRightDrawable;
     /* Text Contents */
@@ -47,6 +57,28 @@ public class DoubleImageView extends View {
     private TextPaint mTextPaint;
     private Point mTextOrigin;
     private int mSpacing;
+    /* Batched Updates */
+    private static final int CHANGED_BOUNDS = 0x1;
+    private static final int CHANGED_TEXT = 0x2;
+    private static final int CHANGED_LEFT = 0x4;
+    private static final int CHANGED_RIGHT = 0x8;
+    private int mUpdateDepth;
+    private int mPendingChanges;
+    private int mDesiredWidth, mDesiredHeight;
+    /* Dirty Regions */
+    private final Rect mLeftBounds = new Rect();
+    private final Rect mRightBounds = new Rect();
+    private final Rect mTextBounds = new Rect();
+    private final Rect mOldLeftBounds = new Rect();
+    private final Rect mOldRightBounds = new Rect();
+    private final Rect mOldTextBounds = new Rect();
+    private final Rect mDirty = new Rect();
+    /* Content Cache */
+    private boolean mContentCacheEnabled;
+    private Bitmap mContentCache;
+    private Canvas mContentCanvas;
+    private final Rect mCacheDirty = new Rect();
+    private final Rect mCacheBounds = new Rect();
 
     public DoubleImageView(Context context) {
         this(context, null);
@@ -61,6 +93,8 @@ public class DoubleImageView extends View {
         mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
         mTextOrigin = new Point(0, 0);
 
+        beginUpdate();
+
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.DoubleImageView, 0, defStyle);
 
         Drawable d = a.getDrawable(R.styleable.DoubleImageView_android_drawableLeft);
@@ -86,6 +120,138 @@ public class DoubleImageView extends View {
         setText(text);
 
         a.recycle();
+        commit();
+    }
+
+    /**
+     * Begin a batch of property changes. Setters called before the matching
+     * {@link #commit()} only record their change; the commit then runs a
+     * single bounds update and invalidate. Batches may be nested, and only
+     * the outermost commit applies the changes.
+     */
+    public void beginUpdate() {
+        mUpdateDepth++;
+    }
+
+    /**
+     * Apply all changes made since {@link #beginUpdate()}. A new layout is
+     * requested only if the desired size of the content changed.
+     */
+    public void commit() {
+        if (mUpdateDepth == 0) {
+            throw new IllegalStateException("commit() called without beginUpdate()");
+        }
+        mUpdateDepth--;
+        if (mUpdateDepth == 0 && mPendingChanges != 0) {
+            applyChanges();
+        }
+    }
+
+    private void onContentChanged(int changes) {
+        mPendingChanges |= changes;
+        if (mUpdateDepth == 0) {
+            applyChanges();
+        }
+    }
+
+    private void applyChanges() {
+        int changes = mPendingChanges;
+        mPendingChanges = 0;
+
+        mOldLeftBounds.set(mLeftBounds);
+        mOldRightBounds.set(mRightBounds);
+        mOldTextBounds.set(mTextBounds);
+
+        if ((changes & CHANGED_TEXT) != 0) {
+            updateTextLayout();
+        }
+
+        int desiredWidth = getDesiredWidth();
+        int desiredHeight = getDesiredHeight();
+        if (desiredWidth != mDesiredWidth || desiredHeight != mDesiredHeight) {
+            mDesiredWidth = desiredWidth;
+            mDesiredHeight = desiredHeight;
+            requestLayout();
+        }
+
+        updateContentBounds();
+
+        //Redraw only the pieces that changed or moved, old and new positions
+        mDirty.setEmpty();
+        addDirtyRegion(mOldLeftBounds, mLeftBounds, (changes & CHANGED_LEFT) != 0);
+        addDirtyRegion(mOldRightBounds, mRightBounds, (changes & CHANGED_RIGHT) != 0);
+        addDirtyRegion(mOldTextBounds, mTextBounds, (changes & CHANGED_TEXT) != 0);
+        if (!mDirty.isEmpty()) {
+            invalidateContent(mDirty);
+        }
+    }
+
+    private void addDirtyRegion(Rect oldBounds, Rect newBounds, boolean contentChanged) {
+        if (contentChanged || !oldBounds.equals(newBounds)) {
+            mDirty.union(oldBounds);
+            mDirty.union(newBounds);
+        }
+    }
+
+    /*
+     * Under hardware acceleration the framework re-records the whole
+     * display list whatever the rect, so the dirty region only saves work
+     * in software-rendered windows and in the content cache.
+     */
+    private void invalidateContent(Rect dirty) {
+        if (mContentCache != null) {
+            mCacheDirty.union(dirty);
+        }
+        invalidate(dirty);
+    }
+
+    /**
+     * Render the composed drawables and text into an offscreen bitmap and
+     * blit that on each frame, so redraws caused by neighbouring views or
+     * ripples do not re-rasterize unchanged content. Property changes
+     * re-render only their dirty region of the bitmap, as do drawable
+     * state changes and animation frames. Costs one bitmap the size of the
+     * view; best suited to content that rarely changes. Under hardware
+     * acceleration a neighbour's redraw does not call onDraw() at all, so
+     * the cache mainly helps software-rendered windows.
+     */
+    public void setContentCacheEnabled(boolean enabled) {
+        if (mContentCacheEnabled != enabled) {
+            mContentCacheEnabled = enabled;
+            releaseContentCache();
+            allocateContentCache();
+            invalidate();
+        }
+    }
+
+    public boolean isContentCacheEnabled() {
+        return mContentCacheEnabled;
+    }
+
+    /*
+     * Allocated when the size is known rather than while drawing; the
+     * whole bitmap starts out dirty
+     */
+    private void allocateContentCache() {
+        final int w = getWidth();
+        final int h = getHeight();
+        if (!mContentCacheEnabled || w <= 0 || h <= 0) {
+            return;
+        }
+        if (mContentCache == null) {
+            mContentCache = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            mContentCanvas = new Canvas(mContentCache);
+        }
+        mCacheDirty.set(0, 0, w, h);
+    }
+
+    private void releaseContentCache() {
+        if (mContentCache != null) {
+            mContentCache.recycle();
+            mContentCache = null;
+            mContentCanvas = null;
+        }
+        mCacheDirty.setEmpty();
     }
 
     public void setLeftDrawableResource(int resId) {
@@ -94,9 +260,10 @@ public class DoubleImageView extends View {
     }
 
     public void setLeftDrawable(Drawable left) {
+        detachDrawable(mLeftDrawable);
         mLeftDrawable = left;
-        updateContentBounds();
-        invalidate();
+        attachDrawable(left);
+        onContentChanged(CHANGED_LEFT);
     }
 
     public void setRightDrawableResource(int resId) {
@@ -105,9 +272,65 @@ public class DoubleImageView extends View {
     }
 
     public void setRightDrawable(Drawable right) {
+        detachDrawable(mRightDrawable);
         mRightDrawable = right;
-        updateContentBounds();
-        invalidate();
+        attachDrawable(right);
+        onContentChanged(CHANGED_RIGHT);
+    }
+
+    private void attachDrawable(Drawable d) {
+        if (d != null) {
+            d.setCallback(this);
+            if (d.isStateful()) {
+                d.setState(getDrawableState());
+            }
+        }
+    }
+
+    private void detachDrawable(Drawable d) {
+        if (d != null) {
+            d.setCallback(null);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mLeftDrawable || who == mRightDrawable || super.verifyDrawable(who);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        if (who == mLeftDrawable || who == mRightDrawable) {
+            //Animation frame or state change; re-render just that piece
+            invalidateContent(who.getBounds());
+        } else {
+            super.invalidateDrawable(who);
+        }
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        final int[] state = getDrawableState();
+        updateDrawableState(mLeftDrawable, state);
+        updateDrawableState(mRightDrawable, state);
+    }
+
+    private void updateDrawableState(Drawable d, int[] state) {
+        if (d != null && d.isStateful() && d.setState(state)) {
+            invalidateContent(d.getBounds());
+        }
+    }
+
+    @Override
+    public void jumpDrawablesToCurrentState() {
+        super.jumpDrawablesToCurrentState();
+        if (mLeftDrawable != null) {
+            mLeftDrawable.jumpToCurrentState();
+        }
+        if (mRightDrawable != null) {
+            mRightDrawable.jumpToCurrentState();
+        }
     }
 
     public void setText(int resId) {
@@ -118,19 +341,47 @@ public class DoubleImageView extends View {
     public void setText(CharSequence text) {
         if (!TextUtils.equals(mText, text)) {
             mText = text;
-            updateContentBounds();
-            invalidate();
+            onContentChanged(CHANGED_TEXT);
+        }
+    }
+
+    /**
+     * Lay out text with this view's current text style on a background
+     * thread, so a later {@link #setText(CharSequence)} on any view with the
+     * same style finds it ready. Intended for list prefetchers binding
+     * upcoming rows; if the layout is not ready in time, setText() falls
+     * back to building it synchronously. Must be called on the UI thread,
+     * which is the only one allowed to touch this view's paint.
+     */
+    public void prefetchText(CharSequence text) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("prefetchText must be called from the main thread");
+        }
+        TextLayoutCache.getInstance().prefetch(text, mTextPaint);
+    }
+
+    public void setTextColor(int color) {
+        if (mTextPaint.getColor() != color) {
+            mTextPaint.setColor(color);
+            onContentChanged(CHANGED_TEXT);
+        }
+    }
+
+    public void setTextSize(float size) {
+        if (mTextPaint.getTextSize() != size) {
+            mTextPaint.setTextSize(size);
+            onContentChanged(CHANGED_TEXT);
         }
     }
 
     public void setSpacing(int spacing) {
         mSpacing = spacing;
-        updateContentBounds();
-        invalidate();
+        onContentChanged(CHANGED_BOUNDS);
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = ViewMetrics.start();
         //Get the width measurement
         int widthSize = View.resolveSize(getDesiredWidth(), widthMeasureSpec);
 
@@ -139,6 +390,7 @@ public class DoubleImageView extends View {
 
         //MUST call this to store the measurements
         setMeasuredDimension(widthSize, heightSize);
+        MEASURE_TIMER.stop(start);
     }
 
     private int getDesiredWidth() {
@@ -184,13 +436,25 @@ public class DoubleImageView extends View {
         return (int)(leftHeight * 0.67f) + (int)(rightHeight * 0.67f);
     }
 
-    private void updateContentBounds() {
+    /*
+     * The label layout depends only on the text and paint, so it is rebuilt
+     * when those change rather than on every bounds update. Layouts come
+     * from the shared cache and may also be drawn by other views.
+     */
+    private void updateTextLayout() {
+        long start = ViewMetrics.start();
         if (mText == null) {
             mText = "";
         }
-        float textWidth = mTextPaint.measureText(mText, 0, mText.length());
-        mTextLayout = new StaticLayout(mText, mTextPaint, (int)textWidth,
-                Layout.Alignment.ALIGN_CENTER, 1f, 0f, true);
+        mTextLayout = TextLayoutCache.getInstance().getLayout(mText, mTextPaint);
+        TEXT_TIMER.stop(start);
+    }
+
+    private void updateContentBounds() {
+        long start = ViewMetrics.start();
+        mLeftBounds.setEmpty();
+        mRightBounds.setEmpty();
+        mTextBounds.setEmpty();
 
         int left = (getWidth() - getDesiredWidth()) / 2;
         int top = (getHeight() - getDesiredHeight()) / 2;
@@ -199,6 +463,7 @@ public class DoubleImageView extends View {
             mLeftDrawable.setBounds(left, top,
                     left + mLeftDrawable.getIntrinsicWidth(), top + mLeftDrawable.getIntrinsicHeight());
 
+            mLeftBounds.set(mLeftDrawable.getBounds());
             left += (mLeftDrawable.getIntrinsicWidth() * 0.33f);
             top += (mLeftDrawable.getIntrinsicHeight() * 0.33f);
         }
@@ -207,24 +472,76 @@ public class DoubleImageView extends View {
             mRightDrawable.setBounds(left, top,
                     left + mRightDrawable.getIntrinsicWidth(), top + mRightDrawable.getIntrinsicHeight());
 
+            mRightBounds.set(mRightDrawable.getBounds());
             left = mRightDrawable.getBounds().right + mSpacing;
         }
 
         if (mTextLayout != null) {
             top = (getHeight() - mTextLayout.getHeight()) / 2;
             mTextOrigin.set(left, top);
+            mTextBounds.set(left, top, left + mTextLayout.getWidth(), top + mTextLayout.getHeight());
         }
+        BOUNDS_TIMER.stop(start);
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         if (w != oldw || h != oldh) {
             updateContentBounds();
+            //Keep a cache bitmap that still fits rather than reallocating on every resize
+            if (mContentCache != null
+                    && (mContentCache.getWidth() < w || mContentCache.getHeight() < h)) {
+                releaseContentCache();
+            }
+            allocateContentCache();
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        allocateContentCache();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseContentCache();
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = ViewMetrics.start();
+        if (mContentCacheEnabled) {
+            drawFromCache(canvas);
+        } else {
+            drawContent(canvas);
+        }
+        DRAW_TIMER.stop(start);
+    }
+
+    private void drawFromCache(Canvas canvas) {
+        if (mContentCache == null) {
+            //Not sized or attached yet
+            drawContent(canvas);
+            return;
+        }
+
+        if (!mCacheDirty.isEmpty()) {
+            //Clear and repaint only the region that changed since the last frame
+            mContentCanvas.save();
+            mContentCanvas.clipRect(mCacheDirty);
+            mContentCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            drawContent(mContentCanvas);
+            mContentCanvas.restore();
+            mCacheDirty.setEmpty();
+        }
+        //The bitmap may be larger than the view after shrinking
+        mCacheBounds.set(0, 0, getWidth(), getHeight());
+        canvas.drawBitmap(mContentCache, mCacheBounds, mCacheBounds, null);
+    }
+
+    private void drawContent(Canvas canvas) {
         if (mLeftDrawable != null) {
             mLeftDrawable.draw(canvas);
         }
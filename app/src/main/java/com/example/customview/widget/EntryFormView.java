@@ -23,22 +23,80 @@
 package com.example.customview.widget;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.Button;
 import android.widget.EditText;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import com.example.customview.R;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class EntryFormView extends RelativeLayout implements View.OnClickListener {
 
     public interface OnEntrySubmittedListener {
         public void onEntrySubmitted(CharSequence name, CharSequence email);
     }
 
+    public interface OnEntriesSubmittedListener {
+        /**
+         * A batch of entries submitted at once, via {@link #submitAll(List)}
+         */
+        public void onEntriesSubmitted(List<Entry> entries);
+    }
+
+    /**
+     * Immutable name/email pair for bulk submission
+     */
+    public static final class Entry {
+        public final String name;
+        public final String email;
+
+        public Entry(CharSequence name, CharSequence email) {
+            this.name = (name == null) ? "" : name.toString();
+            this.email = (email == null) ? "" : email.toString();
+        }
+    }
+
+    /* Instrumentation */
+    private static final ViewMetrics.Timer MEASURE_TIMER = ViewMetrics.timer("EntryFormView.onMeasure");
+    private static final ViewMetrics.Timer LAYOUT_TIMER = ViewMetrics.timer("EntryFormView.onLayout");
+    private static final ViewMetrics.Timer DRAW_TIMER = ViewMetrics.timer("EntryFormView.dispatchDraw");
+
     private EditText mNameText, mEmailText;
     private OnEntrySubmittedListener mListener;
+    private OnEntriesSubmittedListener mBatchListener;
+    /* Validation */
+    private static final String TAG = "EntryFormView";
+    private static final long VALIDATION_DELAY = 300;
+    private static final String VALIDATION_FAILED_ERROR = "Unable to check this entry";
+    private static final ExecutorService VALIDATION_EXECUTOR = Executors.newSingleThreadExecutor();
+    //Not View.post(), which queues runnables that never run while detached on API 15
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private EntryValidator mValidator = new DefaultEntryValidator();
+    private int mValidationGeneration;
+    private Future<?> mValidationFuture;
+    //Last field values that finished validating, and the outcome
+    private String mValidatedName, mValidatedEmail;
+    private boolean mValidatedOk;
+    private boolean mSubmitPending;
 
     public EntryFormView(Context context) {
         this(context, null);
@@ -49,31 +107,319 @@ public class EntryFormView extends RelativeLayout implements View.OnClickListene
     }
 
     public EntryFormView(Context context, AttributeSet attrs, int defStyle) {
+        this(context, attrs, defStyle, true);
+    }
+
+    /**
+     * Create a form whose content is built directly in code rather than
+     * inflated from entry_form.xml. The hierarchy is the same, but
+     * construction skips XML parsing and reflective view creation, which
+     * matters when many forms are created in dialogs or list rows.
+     */
+    public static EntryFormView create(Context context) {
+        return new EntryFormView(context, null, 0, false);
+    }
+
+    private EntryFormView(Context context, AttributeSet attrs, int defStyle, boolean inflate) {
         super(context, attrs, defStyle);
-        //Inflate and attach the content
-        LayoutInflater.from(context).inflate(R.layout.entry_form, this);
+        Button saveButton;
+        if (inflate) {
+            //Inflate and attach the content
+            LayoutInflater.from(context).inflate(R.layout.entry_form, this);
+
+            mNameText = (EditText) findViewById(R.id.name_text);
+            mEmailText = (EditText) findViewById(R.id.email_text);
+            saveButton = (Button) findViewById(R.id.save_button);
+        } else {
+            saveButton = buildContent(context);
+        }
 
         setBackgroundResource(R.drawable.background);
 
-        mNameText = (EditText) findViewById(R.id.name_text);
-        mEmailText = (EditText) findViewById(R.id.email_text);
+        saveButton.setOnClickListener(this);
+
+        mNameText.addTextChangedListener(mFieldWatcher);
+        mEmailText.addTextChangedListener(mFieldWatcher);
+    }
+
+    /*
+     * Programmatic equivalent of entry_form.xml; keep the two in sync.
+     * Returns the save button, the fields are assigned directly.
+     */
+    private Button buildContent(Context context) {
+        final int labelWidth = dpToPixels(80);
+        final int labelMargin = dpToPixels(5);
+
+        TextView nameLabel = new TextView(context);
+        nameLabel.setId(R.id.name_label);
+        nameLabel.setGravity(Gravity.RIGHT | Gravity.CENTER_VERTICAL);
+        nameLabel.setText(R.string.entry_name_label);
+        LayoutParams lp = new LayoutParams(labelWidth, LayoutParams.WRAP_CONTENT);
+        lp.addRule(ALIGN_TOP, R.id.name_text);
+        lp.addRule(ALIGN_BOTTOM, R.id.name_text);
+        lp.rightMargin = labelMargin;
+        addView(nameLabel, lp);
+
+        mNameText = new EditText(context);
+        mNameText.setId(R.id.name_text);
+        mNameText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_CAP_WORDS);
+        mNameText.setImeOptions(EditorInfo.IME_ACTION_NEXT);
+        lp = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+        lp.addRule(RIGHT_OF, R.id.name_label);
+        addView(mNameText, lp);
+
+        TextView emailLabel = new TextView(context);
+        emailLabel.setId(R.id.email_label);
+        emailLabel.setGravity(Gravity.RIGHT | Gravity.CENTER_VERTICAL);
+        emailLabel.setText(R.string.entry_email_label);
+        lp = new LayoutParams(labelWidth, LayoutParams.WRAP_CONTENT);
+        lp.addRule(ALIGN_TOP, R.id.email_text);
+        lp.addRule(ALIGN_BOTTOM, R.id.email_text);
+        lp.rightMargin = labelMargin;
+        addView(emailLabel, lp);
+
+        mEmailText = new EditText(context);
+        mEmailText.setId(R.id.email_text);
+        mEmailText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS);
+        mEmailText.setImeOptions(EditorInfo.IME_ACTION_DONE);
+        lp = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+        lp.addRule(RIGHT_OF, R.id.email_label);
+        lp.addRule(BELOW, R.id.name_text);
+        addView(mEmailText, lp);
+
+        Button saveButton = new Button(context);
+        saveButton.setId(R.id.save_button);
+        saveButton.setText(R.string.entry_save);
+        lp = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+        lp.addRule(BELOW, R.id.email_text);
+        lp.addRule(ALIGN_PARENT_RIGHT);
+        lp.topMargin = labelMargin;
+        addView(saveButton, lp);
+
+        return saveButton;
+    }
+
+    //Rounds the same way as dimensions inflated from XML
+    private int dpToPixels(int dp) {
+        float pixels = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp,
+                getResources().getDisplayMetrics());
+        return (int) (pixels + 0.5f);
+    }
+
+    /**
+     * Replace the validator run as the user types. It is called on a
+     * background thread.
+     */
+    public void setValidator(EntryValidator validator) {
+        if (validator == null) {
+            throw new IllegalArgumentException("Validator must not be null");
+        }
+        mValidator = validator;
+        mValidatedName = null;
+        mValidatedEmail = null;
+        onFieldsChanged();
+    }
+
+    private final TextWatcher mFieldWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) { }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            onFieldsChanged();
+        }
+    };
+
+    /*
+     * Each edit supersedes any validation in flight and restarts the
+     * debounce delay, so only a pause in typing triggers a run. A pending
+     * submit is kept, and goes ahead with the edited values once they
+     * validate.
+     */
+    private void onFieldsChanged() {
+        cancelValidation();
+
+        if (mNameText.length() == 0 && mEmailText.length() == 0) {
+            //Nothing entered (e.g. just cleared); errors appear on submit
+            mSubmitPending = false;
+            mNameText.setError(null);
+            mEmailText.setError(null);
+            return;
+        }
+        mMainHandler.postDelayed(mStartValidation, VALIDATION_DELAY);
+    }
+
+    private final Runnable mStartValidation = new Runnable() {
+        @Override
+        public void run() {
+            startValidation();
+        }
+    };
+
+    private void startValidation() {
+        final String name = mNameText.getText().toString();
+        final String email = mEmailText.getText().toString();
+        final EntryValidator validator = mValidator;
+        final int generation = mValidationGeneration;
+
+        mValidationFuture = VALIDATION_EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                CharSequence nameError, emailError;
+                boolean failed = false;
+                try {
+                    nameError = validator.validateName(name);
+                    emailError = validator.validateEmail(email);
+                } catch (RuntimeException e) {
+                    //Always report back, or a pending submit waits on this run forever
+                    Log.w(TAG, "Validator failed", e);
+                    nameError = VALIDATION_FAILED_ERROR;
+                    emailError = null;
+                    failed = true;
+                }
+
+                final CharSequence finalNameError = nameError;
+                final CharSequence finalEmailError = emailError;
+                final boolean finalFailed = failed;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onValidationFinished(generation, name, email,
+                                finalNameError, finalEmailError, finalFailed);
+                    }
+                });
+            }
+        });
+    }
+
+    private void cancelValidation() {
+        mValidationGeneration++;
+        mMainHandler.removeCallbacks(mStartValidation);
+        if (mValidationFuture != null) {
+            mValidationFuture.cancel(false);
+            mValidationFuture = null;
+        }
+    }
+
+    private void onValidationFinished(int generation, String name, String email,
+                                      CharSequence nameError, CharSequence emailError, boolean failed) {
+        if (generation != mValidationGeneration) {
+            //Fields changed since this run started
+            return;
+        }
+        mValidationFuture = null;
+
+        mNameText.setError(nameError);
+        mEmailText.setError(emailError);
+        if (failed) {
+            //Nothing was validated; the next submit tries again
+            mValidatedName = mValidatedEmail = null;
+            mValidatedOk = false;
+            mSubmitPending = false;
+            return;
+        }
+        mValidatedName = name;
+        mValidatedEmail = email;
+        mValidatedOk = (nameError == null && emailError == null);
+
+        if (mSubmitPending) {
+            mSubmitPending = false;
+            if (mValidatedOk) {
+                submit();
+            }
+        }
+    }
+
+    private boolean isValidationCurrent() {
+        return mValidatedName != null
+                && TextUtils.equals(mValidatedName, mNameText.getText())
+                && TextUtils.equals(mValidatedEmail, mEmailText.getText());
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = ViewMetrics.start();
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        MEASURE_TIMER.stop(start);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        long start = ViewMetrics.start();
+        super.onLayout(changed, l, t, r, b);
+        LAYOUT_TIMER.stop(start);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        long start = ViewMetrics.start();
+        super.dispatchDraw(canvas);
+        DRAW_TIMER.stop(start);
+    }
 
-        findViewById(R.id.save_button).setOnClickListener(this);
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelValidation();
+        mSubmitPending = false;
     }
 
     public void setOnEntrySubmittedListener(OnEntrySubmittedListener listener) {
         mListener = listener;
     }
 
+    public void setOnEntriesSubmittedListener(OnEntriesSubmittedListener listener) {
+        mBatchListener = listener;
+    }
+
+    /**
+     * Submit many entries at once, e.g. from a scanner or a paste, as a
+     * single callback rather than one per entry. Without a batch listener
+     * each entry is passed to the OnEntrySubmittedListener in turn.
+     */
+    public void submitAll(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (mBatchListener != null) {
+            mBatchListener.onEntriesSubmitted(entries);
+        } else if (mListener != null) {
+            for (int i=0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                mListener.onEntrySubmitted(entry.name, entry.email);
+            }
+        }
+    }
+
     @Override
     public void onClick(View v) {
         //Hide the keyboard
         InputMethodManager imm = (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
         imm.hideSoftInputFromWindow(mNameText.getWindowToken(), 0);
 
+        //Gate on the last validated values; never validate inline
+        if (isValidationCurrent()) {
+            if (mValidatedOk) {
+                submit();
+            }
+            return;
+        }
+
+        //Submit as soon as the current values finish validating
+        mSubmitPending = true;
+        if (mValidationFuture == null) {
+            mMainHandler.removeCallbacks(mStartValidation);
+            startValidation();
+        }
+    }
+
+    private void submit() {
         //Notify the listener
         if (mListener != null) {
-            mListener.onEntrySubmitted(mNameText.getText(), mEmailText.getText());
+            mListener.onEntrySubmitted(mValidatedName, mValidatedEmail);
         }
 
         //Clear the fields
@@ -0,0 +1,386 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import java.util.Arrays;
+
+/**
+ * Placement engine for the direct children of {@link BoxGridLayout}.
+ *
+ * Resolves each child's requested row/column/span into a packed occupancy
+ * table (one int per cell holding the owning child index, or -1) and keeps
+ * prefix-sum offsets for the column and row tracks. All tables are rebuilt
+ * only when the structure, weights or size change, and their arrays are
+ * reused, so steady-state measure and layout passes are plain array lookups.
+ */
+final class GridPlacement {
+
+    static final int UNSPECIFIED = -1;
+
+    //Fields packed per child in mRequests and mCells
+    private static final int ROW = 0;
+    private static final int COLUMN = 1;
+    private static final int ROW_SPAN = 2;
+    private static final int COLUMN_SPAN = 3;
+    private static final int STRIDE = 4;
+
+    private final int mColumnCount;
+    private final int mRowCount;
+
+    private int mChildCount;
+    private int[] mRequests = new int[0];
+    private int[] mCells = new int[0];
+    private final int[] mOccupancy;
+    private boolean mPlacementDirty = true;
+
+    private float[] mColumnWeights, mRowWeights;
+    private final int[] mColumnOffsets;
+    private final int[] mRowOffsets;
+    private int mTrackSize = -1;
+
+    GridPlacement(int columnCount, int rowCount) {
+        mColumnCount = columnCount;
+        mRowCount = rowCount;
+        mOccupancy = new int[columnCount * rowCount];
+        mColumnOffsets = new int[columnCount + 1];
+        mRowOffsets = new int[rowCount + 1];
+    }
+
+    /* Structure */
+
+    void setChildCount(int count) {
+        if (mRequests.length < count * STRIDE) {
+            //Grow with headroom so adding children one at a time is cheap
+            int size = Math.max(count, mChildCount * 2) * STRIDE;
+            mRequests = Arrays.copyOf(mRequests, size);
+            mCells = new int[size];
+            mPlacementDirty = true;
+        }
+        if (count != mChildCount) {
+            mChildCount = count;
+            mPlacementDirty = true;
+        }
+    }
+
+    /**
+     * Record what the child at index asked for; marks the placement
+     * stale only if something differs from the last pass.
+     */
+    void setRequest(int index, int row, int column, int rowSpan, int columnSpan) {
+        int base = index * STRIDE;
+        int[] requests = mRequests;
+        if (requests[base + ROW] != row || requests[base + COLUMN] != column
+                || requests[base + ROW_SPAN] != rowSpan || requests[base + COLUMN_SPAN] != columnSpan) {
+            requests[base + ROW] = row;
+            requests[base + COLUMN] = column;
+            requests[base + ROW_SPAN] = rowSpan;
+            requests[base + COLUMN_SPAN] = columnSpan;
+            mPlacementDirty = true;
+        }
+    }
+
+    /**
+     * Resolve the requests into cells if anything changed.
+     *
+     * @return true if the placement was rebuilt
+     */
+    boolean updatePlacement() {
+        if (!mPlacementDirty) {
+            return false;
+        }
+        mPlacementDirty = false;
+
+        Arrays.fill(mOccupancy, UNSPECIFIED);
+
+        //Children with a fixed row and column claim their cells first
+        for (int i=0; i < mChildCount; i++) {
+            int base = i * STRIDE;
+            int row = mRequests[base + ROW];
+            int column = mRequests[base + COLUMN];
+            if (row != UNSPECIFIED && column != UNSPECIFIED) {
+                int rowSpan = getSpan(base + ROW_SPAN, mRowCount);
+                int columnSpan = getSpan(base + COLUMN_SPAN, mColumnCount);
+                if (!fits(row, column, rowSpan, columnSpan)) {
+                    mPlacementDirty = true;
+                    throw new IllegalStateException("BoxGridLayout child " + i + " cannot be placed at row "
+                            + row + ", column " + column);
+                }
+                occupy(i, row, column, rowSpan, columnSpan);
+            }
+        }
+
+        //Everyone else flows into the first free cells in fill order
+        int firstFree = 0;
+        for (int i=0; i < mChildCount; i++) {
+            int base = i * STRIDE;
+            int requestedRow = mRequests[base + ROW];
+            int requestedColumn = mRequests[base + COLUMN];
+            if (requestedRow != UNSPECIFIED && requestedColumn != UNSPECIFIED) {
+                continue;
+            }
+
+            int rowSpan = getSpan(base + ROW_SPAN, mRowCount);
+            int columnSpan = getSpan(base + COLUMN_SPAN, mColumnCount);
+            while (firstFree < mOccupancy.length && mOccupancy[firstFree] != UNSPECIFIED) {
+                firstFree++;
+            }
+
+            boolean placed = false;
+            for (int cell = firstFree; cell < mOccupancy.length && !placed; cell++) {
+                int row = cell / mColumnCount;
+                int column = cell % mColumnCount;
+                if ((requestedRow == UNSPECIFIED || requestedRow == row)
+                        && (requestedColumn == UNSPECIFIED || requestedColumn == column)
+                        && fits(row, column, rowSpan, columnSpan)) {
+                    occupy(i, row, column, rowSpan, columnSpan);
+                    placed = true;
+                }
+            }
+            if (!placed) {
+                mPlacementDirty = true;
+                throw new IllegalStateException("BoxGridLayout has no room for child " + i);
+            }
+        }
+
+        return true;
+    }
+
+    private int getSpan(int requestIndex, int max) {
+        return Math.max(1, Math.min(mRequests[requestIndex], max));
+    }
+
+    private boolean fits(int row, int column, int rowSpan, int columnSpan) {
+        if (row < 0 || column < 0 || row + rowSpan > mRowCount || column + columnSpan > mColumnCount) {
+            return false;
+        }
+        for (int r = row; r < row + rowSpan; r++) {
+            for (int c = column; c < column + columnSpan; c++) {
+                if (mOccupancy[r * mColumnCount + c] != UNSPECIFIED) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void occupy(int index, int row, int column, int rowSpan, int columnSpan) {
+        for (int r = row; r < row + rowSpan; r++) {
+            for (int c = column; c < column + columnSpan; c++) {
+                mOccupancy[r * mColumnCount + c] = index;
+            }
+        }
+        int base = index * STRIDE;
+        mCells[base + ROW] = row;
+        mCells[base + COLUMN] = column;
+        mCells[base + ROW_SPAN] = rowSpan;
+        mCells[base + COLUMN_SPAN] = columnSpan;
+    }
+
+    /* Tracks */
+
+    void setColumnWeights(float[] weights) {
+        mColumnWeights = checkWeights(weights, mColumnCount);
+        mTrackSize = -1;
+    }
+
+    void setRowWeights(float[] weights) {
+        mRowWeights = checkWeights(weights, mRowCount);
+        mTrackSize = -1;
+    }
+
+    private static float[] checkWeights(float[] weights, int count) {
+        if (weights == null) {
+            return null;
+        }
+        if (weights.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " weights, got " + weights.length);
+        }
+        for (float weight : weights) {
+            if (weight <= 0f) {
+                throw new IllegalArgumentException("Track weights must be positive");
+            }
+        }
+        return weights.clone();
+    }
+
+    /**
+     * Distribute size across the tracks by weight.
+     *
+     * @return true if the offsets were recomputed
+     */
+    boolean setTrackSize(int size) {
+        if (size == mTrackSize) {
+            return false;
+        }
+        mTrackSize = size;
+        computeOffsets(mColumnOffsets, mColumnWeights, size);
+        computeOffsets(mRowOffsets, mRowWeights, size);
+        return true;
+    }
+
+    private static void computeOffsets(int[] offsets, float[] weights, int size) {
+        int count = offsets.length - 1;
+        if (weights == null) {
+            //Uniform tracks, sized exactly like the original square blocks
+            int block = size / count;
+            for (int i=0; i <= count; i++) {
+                offsets[i] = i * block;
+            }
+            return;
+        }
+
+        float total = 0f;
+        for (float weight : weights) {
+            total += weight;
+        }
+        float sum = 0f;
+        offsets[0] = 0;
+        for (int i=0; i < count; i++) {
+            sum += weights[i];
+            offsets[i + 1] = Math.round(size * sum / total);
+        }
+    }
+
+    /* Lookups */
+
+    int getCellLeft(int index) {
+        return mColumnOffsets[mCells[index * STRIDE + COLUMN]];
+    }
+
+    int getCellTop(int index) {
+        return mRowOffsets[mCells[index * STRIDE + ROW]];
+    }
+
+    int getCellRight(int index) {
+        int base = index * STRIDE;
+        return mColumnOffsets[mCells[base + COLUMN] + mCells[base + COLUMN_SPAN]];
+    }
+
+    int getCellBottom(int index) {
+        int base = index * STRIDE;
+        return mRowOffsets[mCells[base + ROW] + mCells[base + ROW_SPAN]];
+    }
+
+    /**
+     * Child index occupying the given cell, or -1 if it is empty
+     */
+    int getOccupant(int cell) {
+        return mOccupancy[cell];
+    }
+
+    /**
+     * Track containing the given coordinate, or -1 if outside the grid
+     */
+    int columnAt(float x) {
+        return trackAt(mColumnOffsets, x);
+    }
+
+    int rowAt(float y) {
+        return trackAt(mRowOffsets, y);
+    }
+
+    private static int trackAt(int[] offsets, float position) {
+        int last = offsets.length - 1;
+        if (position < offsets[0] || position >= offsets[last]) {
+            return UNSPECIFIED;
+        }
+        //Find the last offset <= position
+        int low = 0, high = last - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /* Separators */
+
+    /**
+     * Upper bound on the floats needed by {@link #buildSeparators(float[])}
+     */
+    int getMaxSeparatorFloats() {
+        return ((mColumnCount + 1) * mRowCount + (mRowCount + 1) * mColumnCount) * 4;
+    }
+
+    /**
+     * Write separator segments for drawLines() into lines, skipping
+     * boundaries that run through the middle of a spanning child and
+     * merging collinear runs.
+     *
+     * @return number of floats written
+     */
+    int buildSeparators(float[] lines) {
+        int n = 0;
+        //Vertical boundaries
+        for (int c=0; c <= mColumnCount; c++) {
+            int runStart = UNSPECIFIED;
+            for (int r=0; r <= mRowCount; r++) {
+                boolean draw = r < mRowCount && isBoundary(r * mColumnCount + c, c, mColumnCount, 1);
+                if (draw && runStart == UNSPECIFIED) {
+                    runStart = r;
+                } else if (!draw && runStart != UNSPECIFIED) {
+                    lines[n++] = mColumnOffsets[c];
+                    lines[n++] = mRowOffsets[runStart];
+                    lines[n++] = mColumnOffsets[c];
+                    lines[n++] = mRowOffsets[r];
+                    runStart = UNSPECIFIED;
+                }
+            }
+        }
+        //Horizontal boundaries
+        for (int r=0; r <= mRowCount; r++) {
+            int runStart = UNSPECIFIED;
+            for (int c=0; c <= mColumnCount; c++) {
+                boolean draw = c < mColumnCount && isBoundary(r * mColumnCount + c, r, mRowCount, mColumnCount);
+                if (draw && runStart == UNSPECIFIED) {
+                    runStart = c;
+                } else if (!draw && runStart != UNSPECIFIED) {
+                    lines[n++] = mColumnOffsets[runStart];
+                    lines[n++] = mRowOffsets[r];
+                    lines[n++] = mColumnOffsets[c];
+                    lines[n++] = mRowOffsets[r];
+                    runStart = UNSPECIFIED;
+                }
+            }
+        }
+        return n;
+    }
+
+    /*
+     * A boundary segment is drawn on the outer edge, between two different
+     * occupants, or between empty cells; it is hidden inside a span.
+     * cell is the cell after the boundary; stride steps back across it.
+     */
+    private boolean isBoundary(int cell, int track, int trackCount, int stride) {
+        if (track == 0 || track == trackCount) {
+            return true;
+        }
+        int before = mOccupancy[cell - stride];
+        int after = mOccupancy[cell];
+        return before != after || after == UNSPECIFIED;
+    }
+}
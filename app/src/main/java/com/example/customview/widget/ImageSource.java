@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Describes where an image can be decoded from, so that its bounds can be
+ * read cheaply up front and its pixels decoded later, off the main thread,
+ * at a resolution that suits the view displaying it.
+ */
+public abstract class ImageSource {
+
+    /**
+     * Opens a fresh stream over the same image data each time it is called
+     */
+    public interface StreamOpener {
+        public InputStream openStream() throws IOException;
+    }
+
+    public static ImageSource fromResource(Resources res, int resId) {
+        return new ResourceSource(res, resId);
+    }
+
+    public static ImageSource fromFile(File file) {
+        return new FileSource(file);
+    }
+
+    /**
+     * @param key Stable identity for the image, used to share decoded results
+     * @param opener Called once for the bounds and once per decode
+     */
+    public static ImageSource fromStream(String key, StreamOpener opener) {
+        return new StreamSource(key, opener);
+    }
+
+    abstract InputStream openStream() throws IOException;
+
+    /**
+     * Stable identity of the image data
+     */
+    public abstract String getKey();
+
+    /**
+     * Factor from source pixels to display pixels; resources are scaled
+     * by density the same way a drawable from android:src would be.
+     */
+    float getDensityScale() {
+        return 1f;
+    }
+
+    /**
+     * Read only the image header into options.outWidth/outHeight
+     */
+    void decodeBounds(BitmapFactory.Options options) throws IOException {
+        options.inJustDecodeBounds = true;
+        decode(options);
+        options.inJustDecodeBounds = false;
+    }
+
+    Bitmap decode(BitmapFactory.Options options) throws IOException {
+        InputStream in = openStream();
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Largest power-of-two subsample that still covers the requested size
+     */
+    static int calculateSampleSize(int sourceWidth, int sourceHeight, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (sourceWidth / (sampleSize * 2) >= reqWidth
+                && sourceHeight / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ImageSource && getKey().equals(((ImageSource) o).getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
+    private static class ResourceSource extends ImageSource {
+        private final Resources mResources;
+        private final int mResId;
+
+        ResourceSource(Resources res, int resId) {
+            mResources = res;
+            mResId = resId;
+        }
+
+        @Override
+        InputStream openStream() {
+            return mResources.openRawResource(mResId);
+        }
+
+        @Override
+        public String getKey() {
+            return "res:" + mResId;
+        }
+
+        @Override
+        float getDensityScale() {
+            TypedValue value = new TypedValue();
+            mResources.getValue(mResId, value, true);
+            if (value.density == TypedValue.DENSITY_NONE) {
+                return 1f;
+            }
+            int density = (value.density == TypedValue.DENSITY_DEFAULT)
+                    ? DisplayMetrics.DENSITY_DEFAULT : value.density;
+            return (float) mResources.getDisplayMetrics().densityDpi / density;
+        }
+    }
+
+    private static class FileSource extends ImageSource {
+        private final File mFile;
+
+        FileSource(File file) {
+            mFile = file;
+        }
+
+        @Override
+        InputStream openStream() throws IOException {
+            return new FileInputStream(mFile);
+        }
+
+        @Override
+        public String getKey() {
+            return "file:" + mFile.getAbsolutePath();
+        }
+    }
+
+    private static class StreamSource extends ImageSource {
+        private final String mKey;
+        private final StreamOpener mOpener;
+
+        StreamSource(String key, StreamOpener opener) {
+            mKey = key;
+            mOpener = opener;
+        }
+
+        @Override
+        InputStream openStream() throws IOException {
+            return mOpener.openStream();
+        }
+
+        @Override
+        public String getKey() {
+            return "stream:" + mKey;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Debug overlay that draws the current {@link ViewMetrics} on top of an
+ * activity, refreshing periodically. It does not take touches, so the UI
+ * underneath stays usable. Only timers that have recorded something are
+ * shown. Timers are read live and each line is formatted into reused
+ * buffers, so refreshing does not allocate once the buffers have grown.
+ */
+public class MetricsOverlayView extends View {
+
+    private static final long REFRESH_INTERVAL = 500;
+
+    private final Paint mTextPaint;
+    private final Paint mBackgroundPaint;
+    private final float mLineHeight;
+    private final float mPadding;
+    private final StringBuilder mLine = new StringBuilder(96);
+    private char[] mLineChars = new char[96];
+
+    /**
+     * Enable metrics and add an overlay over the whole activity window
+     */
+    public static MetricsOverlayView attach(Activity activity) {
+        ViewMetrics.setEnabled(true);
+        MetricsOverlayView overlay = new MetricsOverlayView(activity);
+        ViewGroup decor = (ViewGroup) activity.getWindow().getDecorView();
+        decor.addView(overlay, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        return overlay;
+    }
+
+    public MetricsOverlayView(Context context) {
+        super(context);
+        float textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 11,
+                context.getResources().getDisplayMetrics());
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextSize(textSize);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(0xAA000000);
+        mLineHeight = textSize * 1.25f;
+        mPadding = textSize / 2f;
+    }
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+            postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        post(mRefresh);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mRefresh);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int timers = ViewMetrics.getTimerCount();
+        int lines = 0;
+        for (int i=0; i < timers; i++) {
+            if (ViewMetrics.getTimer(i).getCount() > 0) {
+                lines++;
+            }
+        }
+        if (lines == 0) {
+            return;
+        }
+
+        canvas.drawRect(0, 0, getWidth(), lines * mLineHeight + mPadding * 2, mBackgroundPaint);
+        float y = mPadding - mTextPaint.ascent();
+        for (int i=0; i < timers; i++) {
+            ViewMetrics.Timer timer = ViewMetrics.getTimer(i);
+            long count = timer.getCount();
+            if (count == 0) {
+                continue;
+            }
+            mLine.setLength(0);
+            mLine.append(timer.getName())
+                    .append("  n=").append(count)
+                    .append("  avg=").append(timer.getAverageNanos() / 1000)
+                    .append("us  p90<").append(timer.getPercentileMicros(0.9f))
+                    .append("us  max=").append(timer.getMaxNanos() / 1000).append("us");
+            int length = mLine.length();
+            if (length > mLineChars.length) {
+                mLineChars = new char[length];
+            }
+            mLine.getChars(0, length, mLineChars, 0);
+            canvas.drawText(mLineChars, 0, length, mPadding, y, mTextPaint);
+            y += mLineHeight;
+        }
+    }
+}
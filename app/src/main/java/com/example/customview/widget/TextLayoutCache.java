@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.graphics.ColorFilter;
+import android.graphics.MaskFilter;
+import android.graphics.Paint;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+import android.graphics.Xfermode;
+import android.os.AsyncTask;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process-wide, size-bounded cache of text layouts shared by all
+ * {@link DoubleImageView} instances, so rows showing the same label in the
+ * same style reuse a single measured {@link StaticLayout}.
+ *
+ * Layouts are keyed by text and every paint attribute that can be read
+ * back, whether it affects layout or only drawing; the layout width is
+ * derived from those. Each cached layout draws with its own private copy
+ * of the paint, so later changes to a view's paint cannot leak into
+ * layouts shared with other views. A shadow layer cannot be read back
+ * from a Paint on this API level, so paints that differ only in their
+ * shadow share layouts; draw those without the cache. Styled (Spanned)
+ * text is never cached.
+ *
+ * Layouts can be built ahead of time on a worker thread with
+ * {@link #prefetch(CharSequence, TextPaint)}; a view binding the same text
+ * later picks the result up from the cache, or builds it synchronously if
+ * the prefetch has not finished.
+ */
+public final class TextLayoutCache {
+
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private static TextLayoutCache sInstance;
+
+    public static synchronized TextLayoutCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new TextLayoutCache(DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    private LruCache<Key, StaticLayout> mCache;
+    //Reused for lookups so a hit does not allocate
+    private final Key mLookupKey = new Key();
+    private int mPrefetchCount;
+
+    private TextLayoutCache(int maxSize) {
+        mCache = new LruCache<Key, StaticLayout>(maxSize);
+    }
+
+    /**
+     * Single-line-width layout for text, measured with paint. Returned
+     * layouts may be shared and must not be modified.
+     */
+    public StaticLayout getLayout(CharSequence text, TextPaint paint) {
+        if (text instanceof Spanned) {
+            return createLayout(text, paint);
+        }
+
+        synchronized (this) {
+            StaticLayout layout = lookUp(text, paint);
+            if (layout != null) {
+                return layout;
+            }
+        }
+        //Private copies; the caller's text and paint may change later
+        return createAndPut(text.toString(), copyPaint(paint));
+    }
+
+    /**
+     * Build the layout for text on a background thread so a later
+     * {@link #getLayout(CharSequence, TextPaint)} with the same text and
+     * paint attributes is a cache hit. The text and paint are copied on
+     * the calling thread before the build is submitted, so the caller may
+     * keep modifying them; call this from the thread that owns the paint.
+     * The worker only ever sees the copies. Spanned text is ignored.
+     */
+    public void prefetch(CharSequence text, TextPaint paint) {
+        if (text == null || text instanceof Spanned) {
+            return;
+        }
+
+        final String string = text.toString();
+        final TextPaint paintCopy = copyPaint(paint);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TextLayoutCache.this) {
+                    if (lookUp(string, paintCopy) != null) {
+                        return;
+                    }
+                }
+                createAndPut(string, paintCopy);
+                synchronized (TextLayoutCache.this) {
+                    mPrefetchCount++;
+                }
+            }
+        });
+    }
+
+    /*
+     * Unlike new TextPaint(paint), set() also copies the TextPaint fields
+     * that are part of the key
+     */
+    private static TextPaint copyPaint(TextPaint paint) {
+        TextPaint copy = new TextPaint();
+        copy.set(paint);
+        return copy;
+    }
+
+    /*
+     * Must hold the lock. The lookup key lets go of the text afterwards so
+     * the cache never keeps a caller's CharSequence alive.
+     */
+    private StaticLayout lookUp(CharSequence text, TextPaint paint) {
+        mLookupKey.set(text, paint);
+        StaticLayout layout = mCache.get(mLookupKey);
+        mLookupKey.text = null;
+        return layout;
+    }
+
+    /*
+     * Layout construction is the expensive part, so it runs outside the
+     * lock; a concurrent build of the same key simply replaces the entry.
+     */
+    private StaticLayout createAndPut(String text, TextPaint paint) {
+        StaticLayout layout = createLayout(text, paint);
+        Key key = new Key();
+        key.set(text, paint);
+        synchronized (this) {
+            mCache.put(key, layout);
+        }
+        return layout;
+    }
+
+    static StaticLayout createLayout(CharSequence text, TextPaint paint) {
+        float textWidth = paint.measureText(text, 0, text.length());
+        return new StaticLayout(text, paint, (int)textWidth,
+                Layout.Alignment.ALIGN_CENTER, 1f, 0f, true);
+    }
+
+    /**
+     * Change the maximum number of cached layouts, keeping the most
+     * recently used ones that still fit
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        LruCache<Key, StaticLayout> cache = new LruCache<Key, StaticLayout>(maxSize);
+        //Snapshot is ordered least to most recently used
+        for (Map.Entry<Key, StaticLayout> entry : mCache.snapshot().entrySet()) {
+            cache.put(entry.getKey(), entry.getValue());
+        }
+        mCache = cache;
+    }
+
+    public synchronized void evictAll() {
+        mCache.evictAll();
+    }
+
+    public synchronized int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public synchronized int missCount() {
+        return mCache.missCount();
+    }
+
+    public synchronized int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * Number of layouts built by {@link #prefetch(CharSequence, TextPaint)}
+     */
+    public synchronized int prefetchCount() {
+        return mPrefetchCount;
+    }
+
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    public synchronized int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /*
+     * A cached layout draws with the paint it was built from, so the key
+     * covers every paint attribute that can be read back, not only those
+     * that affect measurement. Effect objects are matched by identity.
+     * The lookup key holds the caller's CharSequence as is; stored keys
+     * hold an immutable copy. Package-private for the keying tests.
+     */
+    static final class Key {
+        CharSequence text;
+        float textSize, textScaleX, textSkewX;
+        int color, flags;
+        Typeface typeface;
+        Paint.Style style;
+        float strokeWidth, strokeMiter;
+        Paint.Cap strokeCap;
+        Paint.Join strokeJoin;
+        Paint.Align textAlign;
+        Shader shader;
+        ColorFilter colorFilter;
+        MaskFilter maskFilter;
+        PathEffect pathEffect;
+        Xfermode xfermode;
+        int bgColor, baselineShift;
+        private int mHash;
+
+        void set(CharSequence text, TextPaint paint) {
+            this.text = text;
+            textSize = paint.getTextSize();
+            textScaleX = paint.getTextScaleX();
+            textSkewX = paint.getTextSkewX();
+            color = paint.getColor();
+            flags = paint.getFlags();
+            typeface = paint.getTypeface();
+            style = paint.getStyle();
+            strokeWidth = paint.getStrokeWidth();
+            strokeMiter = paint.getStrokeMiter();
+            strokeCap = paint.getStrokeCap();
+            strokeJoin = paint.getStrokeJoin();
+            textAlign = paint.getTextAlign();
+            shader = paint.getShader();
+            colorFilter = paint.getColorFilter();
+            maskFilter = paint.getMaskFilter();
+            pathEffect = paint.getPathEffect();
+            xfermode = paint.getXfermode();
+            bgColor = paint.bgColor;
+            baselineShift = paint.baselineShift;
+            mHash = computeHash();
+        }
+
+        private int computeHash() {
+            //Same as String.hashCode(), for any CharSequence
+            int result = 0;
+            for (int i=0; i < text.length(); i++) {
+                result = 31 * result + text.charAt(i);
+            }
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + Float.floatToIntBits(textScaleX);
+            result = 31 * result + Float.floatToIntBits(textSkewX);
+            result = 31 * result + color;
+            result = 31 * result + flags;
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            result = 31 * result + (style != null ? style.hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(strokeWidth);
+            result = 31 * result + (textAlign != null ? textAlign.hashCode() : 0);
+            result = 31 * result + bgColor;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mHash == other.mHash
+                    && textSize == other.textSize
+                    && textScaleX == other.textScaleX
+                    && textSkewX == other.textSkewX
+                    && color == other.color
+                    && flags == other.flags
+                    && (typeface == null ? other.typeface == null : typeface.equals(other.typeface))
+                    && style == other.style
+                    && strokeWidth == other.strokeWidth
+                    && strokeMiter == other.strokeMiter
+                    && strokeCap == other.strokeCap
+                    && strokeJoin == other.strokeJoin
+                    && textAlign == other.textAlign
+                    && shader == other.shader
+                    && colorFilter == other.colorFilter
+                    && maskFilter == other.maskFilter
+                    && pathEffect == other.pathEffect
+                    && xfermode == other.xfermode
+                    && bgColor == other.bgColor
+                    && baselineShift == other.baselineShift
+                    && contentEquals(text, other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        private static boolean contentEquals(CharSequence a, CharSequence b) {
+            if (a == b) {
+                return true;
+            }
+            final int length = a.length();
+            if (length != b.length()) {
+                return false;
+            }
+            for (int i=0; i < length; i++) {
+                if (a.charAt(i) != b.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.AsyncTask;
+import android.view.View;
+import android.view.ViewParent;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws very large images as a grid of fixed-size tiles decoded from just
+ * the region in view, at a resolution level chosen from the current scale.
+ *
+ * A coarse, whole-image base bitmap is always drawn first; tiles from the
+ * next coarser level are used as placeholders while the tiles for the
+ * current level decode in the background. Tiles live in a small LRU sized
+ * to the host view, so memory tracks the view size, not the image size.
+ */
+final class TileRenderer {
+
+    //Edge of a decoded tile, in bitmap pixels
+    static final int TILE_SIZE = 256;
+    //Base bitmap is decoded to no more than about twice this on its long edge
+    static final int BASE_SIZE = 512;
+
+    //Region decoders are not thread safe; decode every tile on one thread
+    private static final Executor TILE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final ImageView mHost;
+    private final TileCache mTiles = new TileCache();
+    private final ArrayList<TileTask> mPending = new ArrayList<TileTask>();
+    private RegionDecoder mDecoder;
+    private int mSourceWidth, mSourceHeight;
+    private int mGeneration;
+
+    /* Draw State (reused every frame) */
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //Drawable coordinates to window coordinates, and back
+    private final Matrix mMatrix = new Matrix();
+    private final Matrix mInverse = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    private final Rect mClip = new Rect();
+    private final RectF mVisible = new RectF();
+    private final Rect mTileSource = new Rect();
+    private final RectF mTileDest = new RectF();
+
+    TileRenderer(ImageView host) {
+        mHost = host;
+    }
+
+    /**
+     * @param width Source width in raw pixels
+     * @param height Source height in raw pixels
+     */
+    void setSource(ImageSource source, int width, int height) {
+        release();
+        mSourceWidth = width;
+        mSourceHeight = height;
+        if (source != null && width > 0 && height > 0) {
+            mDecoder = new RegionDecoder(source);
+        }
+    }
+
+    /**
+     * Sample size for the whole-image base bitmap
+     */
+    int getBaseSampleSize() {
+        return ImageSource.calculateSampleSize(mSourceWidth, mSourceHeight, BASE_SIZE, BASE_SIZE);
+    }
+
+    /**
+     * Drawable for the base bitmap that draws our tiles over itself
+     */
+    BitmapDrawable createDrawable(Resources res, Bitmap base, int baseSampleSize) {
+        return new TiledDrawable(res, base, this, baseSampleSize);
+    }
+
+    /**
+     * Cancel outstanding decodes and drop all tiles and the decoder
+     */
+    void release() {
+        for (int i=0; i < mPending.size(); i++) {
+            mPending.get(i).cancel(false);
+        }
+        mPending.clear();
+        mTiles.clear();
+        if (mDecoder != null) {
+            //Queue behind any in-flight decode rather than blocking on it
+            final RegionDecoder decoder = mDecoder;
+            TILE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decoder.recycle();
+                }
+            });
+            mDecoder = null;
+        }
+    }
+
+    /*
+     * Called from the drawable with the canvas in drawable coordinates.
+     * The on-screen scale and visible region come from the host's view
+     * tree, not the canvas: a hardware-accelerated canvas reports neither
+     * the real matrix nor the visible clip.
+     */
+    private void draw(Canvas canvas, Rect bounds, int baseSampleSize) {
+        if (mDecoder == null || bounds.isEmpty()) {
+            return;
+        }
+
+        mGeneration++;
+        float toDrawable = (float) bounds.width() / mSourceWidth;
+        computeDrawableToWindow();
+        mMatrix.getValues(mMatrixValues);
+        float screenPerSource = toDrawable
+                * (float) Math.hypot(mMatrixValues[Matrix.MSCALE_X], mMatrixValues[Matrix.MSKEW_Y]);
+
+        //Coarsest level that still has at least one pixel per screen pixel
+        int sampleSize = 1;
+        while (sampleSize * 2 * screenPerSource <= 1f) {
+            sampleSize *= 2;
+        }
+
+        if (sampleSize < baseSampleSize && computeVisibleBounds(bounds)) {
+            mTiles.ensureCapacity(mHost.getWidth(), mHost.getHeight());
+
+            int tileSpan = TILE_SIZE * sampleSize;
+            int columns = (mSourceWidth + tileSpan - 1) / tileSpan;
+            int rows = (mSourceHeight + tileSpan - 1) / tileSpan;
+            int firstColumn = (int) ((mClip.left - bounds.left) / toDrawable) / tileSpan;
+            int firstRow = (int) ((mClip.top - bounds.top) / toDrawable) / tileSpan;
+            int lastColumn = Math.min(columns - 1, (int) Math.ceil((mClip.right - bounds.left) / toDrawable / tileSpan) - 1);
+            int lastRow = Math.min(rows - 1, (int) Math.ceil((mClip.bottom - bounds.top) / toDrawable / tileSpan) - 1);
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    drawTile(canvas, bounds, toDrawable, sampleSize, baseSampleSize, column, row);
+                }
+            }
+        }
+
+        cancelStaleRequests();
+    }
+
+    /*
+     * Chain the host's image matrix and padding with the offset, scroll
+     * and transform of the host and each ancestor, in the order the view
+     * tree applies them when drawing.
+     */
+    private void computeDrawableToWindow() {
+        mMatrix.set(mHost.getImageMatrix());
+        mMatrix.postTranslate(mHost.getPaddingLeft(), mHost.getPaddingTop());
+        View view = mHost;
+        while (true) {
+            mMatrix.postTranslate(-view.getScrollX(), -view.getScrollY());
+            mMatrix.postConcat(view.getMatrix());
+            mMatrix.postTranslate(view.getLeft(), view.getTop());
+            ViewParent parent = view.getParent();
+            if (!(parent instanceof View)) {
+                break;
+            }
+            view = (View) parent;
+        }
+    }
+
+    /*
+     * Part of the drawable bounds that is on screen, into mClip
+     */
+    private boolean computeVisibleBounds(Rect bounds) {
+        if (!mHost.getGlobalVisibleRect(mClip) || !mMatrix.invert(mInverse)) {
+            return false;
+        }
+        mVisible.set(mClip);
+        mInverse.mapRect(mVisible);
+        mVisible.roundOut(mClip);
+        return mClip.intersect(bounds);
+    }
+
+    private void drawTile(Canvas canvas, Rect bounds, float toDrawable, int sampleSize, int baseSampleSize,
+                          int column, int row) {
+        int tileSpan = TILE_SIZE * sampleSize;
+        int left = column * tileSpan;
+        int top = row * tileSpan;
+        int right = Math.min(left + tileSpan, mSourceWidth);
+        int bottom = Math.min(top + tileSpan, mSourceHeight);
+        mTileDest.set(bounds.left + left * toDrawable, bounds.top + top * toDrawable,
+                bounds.left + right * toDrawable, bounds.top + bottom * toDrawable);
+
+        Bitmap tile = mTiles.get(getKey(sampleSize, column, row));
+        if (tile != null) {
+            canvas.drawBitmap(tile, null, mTileDest, mPaint);
+            return;
+        }
+        requestTile(sampleSize, column, row, left, top, right, bottom);
+
+        //Stand in with a quarter of the coarser level's tile, if we have it
+        int parentSampleSize = sampleSize * 2;
+        if (parentSampleSize < baseSampleSize) {
+            Bitmap parent = mTiles.get(getKey(parentSampleSize, column / 2, row / 2));
+            if (parent != null) {
+                int x = (column % 2) * TILE_SIZE / 2;
+                int y = (row % 2) * TILE_SIZE / 2;
+                mTileSource.set(x, y,
+                        Math.min(x + (right - left + parentSampleSize - 1) / parentSampleSize, parent.getWidth()),
+                        Math.min(y + (bottom - top + parentSampleSize - 1) / parentSampleSize, parent.getHeight()));
+                canvas.drawBitmap(parent, mTileSource, mTileDest, mPaint);
+            }
+        }
+    }
+
+    private void requestTile(int sampleSize, int column, int row, int left, int top, int right, int bottom) {
+        long key = getKey(sampleSize, column, row);
+        for (int i=0; i < mPending.size(); i++) {
+            TileTask task = mPending.get(i);
+            if (task.mKey == key) {
+                //Still wanted
+                task.mGeneration = mGeneration;
+                return;
+            }
+        }
+
+        TileTask task = new TileTask(this, mDecoder, key, sampleSize, new Rect(left, top, right, bottom));
+        task.mGeneration = mGeneration;
+        mPending.add(task);
+        task.executeOnExecutor(TILE_EXECUTOR);
+    }
+
+    /*
+     * Anything not asked for during this draw has scrolled or zoomed out
+     * of view; don't spend decode time on it.
+     */
+    private void cancelStaleRequests() {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            TileTask task = mPending.get(i);
+            if (task.mGeneration != mGeneration) {
+                task.cancel(false);
+                mPending.remove(i);
+            }
+        }
+    }
+
+    private void onTileDecoded(TileTask task, Bitmap tile) {
+        if (!mPending.remove(task)) {
+            return;
+        }
+        if (tile != null) {
+            mTiles.put(task.mKey, tile);
+            mHost.invalidate();
+        }
+    }
+
+    private static long getKey(int sampleSize, int column, int row) {
+        long level = Integer.numberOfTrailingZeros(sampleSize);
+        return (level << 56) | ((long) row << 28) | column;
+    }
+
+    private static class TiledDrawable extends BitmapDrawable {
+        private final TileRenderer mRenderer;
+        private final int mBaseSampleSize;
+
+        TiledDrawable(Resources res, Bitmap base, TileRenderer renderer, int baseSampleSize) {
+            super(res, base);
+            mRenderer = renderer;
+            mBaseSampleSize = baseSampleSize;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            super.draw(canvas);
+            mRenderer.draw(canvas, getBounds(), mBaseSampleSize);
+        }
+    }
+
+    private static class TileTask extends AsyncTask<Void, Void, Bitmap> {
+        private final TileRenderer mRenderer;
+        private final RegionDecoder mDecoder;
+        private final long mKey;
+        private final int mSampleSize;
+        private final Rect mRegion;
+        //Last draw that asked for this tile
+        private int mGeneration;
+
+        TileTask(TileRenderer renderer, RegionDecoder decoder, long key, int sampleSize, Rect region) {
+            mRenderer = renderer;
+            mDecoder = decoder;
+            mKey = key;
+            mSampleSize = sampleSize;
+            mRegion = region;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            if (isCancelled()) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = mSampleSize;
+            return mDecoder.decodeRegion(mRegion, options);
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap tile) {
+            mRenderer.onTileDecoded(this, tile);
+        }
+    }
+
+    /*
+     * Opens the platform region decoder lazily on the tile thread, since
+     * parsing the image index can itself take a while.
+     */
+    private static class RegionDecoder {
+        private final ImageSource mSource;
+        private BitmapRegionDecoder mDecoder;
+        private boolean mClosed;
+
+        RegionDecoder(ImageSource source) {
+            mSource = source;
+        }
+
+        synchronized Bitmap decodeRegion(Rect region, BitmapFactory.Options options) {
+            if (mClosed) {
+                return null;
+            }
+            try {
+                if (mDecoder == null) {
+                    InputStream in = mSource.openStream();
+                    try {
+                        mDecoder = BitmapRegionDecoder.newInstance(in, false);
+                    } finally {
+                        in.close();
+                    }
+                }
+                return mDecoder.decodeRegion(region, options);
+            } catch (IOException e) {
+                //Not a format the region decoder understands; base only
+                mClosed = true;
+                return null;
+            } catch (OutOfMemoryError e) {
+                return null;
+            }
+        }
+
+        synchronized void recycle() {
+            mClosed = true;
+            if (mDecoder != null) {
+                mDecoder.recycle();
+                mDecoder = null;
+            }
+        }
+    }
+
+    /*
+     * Tiny LRU keyed by packed tile coordinates. It only ever holds a few
+     * dozen tiles, so a linear scan beats hashing and never allocates.
+     * Evicted tiles are simply dropped; a display list may still be
+     * drawing them, so they are never recycled here.
+     */
+    private static class TileCache {
+        private long[] mKeys = new long[0];
+        private Bitmap[] mTiles = new Bitmap[0];
+        private int[] mLastUsed = new int[0];
+        private int mSize;
+        private int mClock;
+        private int mViewWidth = -1, mViewHeight = -1;
+
+        /*
+         * Tiles are drawn between half and full size, so cover the view
+         * at half size plus a border, with room for placeholders.
+         */
+        void ensureCapacity(int viewWidth, int viewHeight) {
+            if (viewWidth == mViewWidth && viewHeight == mViewHeight) {
+                return;
+            }
+            mViewWidth = viewWidth;
+            mViewHeight = viewHeight;
+
+            int half = TILE_SIZE / 2;
+            int capacity = ((viewWidth + half - 1) / half + 1) * ((viewHeight + half - 1) / half + 1) * 5 / 4;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mTiles = Arrays.copyOf(mTiles, capacity);
+            mLastUsed = Arrays.copyOf(mLastUsed, capacity);
+            mSize = Math.min(mSize, capacity);
+        }
+
+        Bitmap get(long key) {
+            for (int i=0; i < mSize; i++) {
+                if (mKeys[i] == key) {
+                    mLastUsed[i] = ++mClock;
+                    return mTiles[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, Bitmap tile) {
+            if (mKeys.length == 0) {
+                return;
+            }
+
+            int slot;
+            if (mSize < mKeys.length) {
+                slot = mSize++;
+            } else {
+                slot = 0;
+                for (int i=1; i < mSize; i++) {
+                    if (mLastUsed[i] < mLastUsed[slot]) {
+                        slot = i;
+                    }
+                }
+            }
+            mKeys[slot] = key;
+            mTiles[slot] = tile;
+            mLastUsed[slot] = ++mClock;
+        }
+
+        void clear() {
+            Arrays.fill(mTiles, null);
+            mSize = 0;
+        }
+    }
+}
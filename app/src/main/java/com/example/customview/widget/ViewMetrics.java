@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in timing of the widgets' hot paths: measure, layout, draw and
+ * content recomputation.
+ *
+ * Each widget declares a {@link Timer} per instrumented method and brackets
+ * the method with {@link #start()} and {@link Timer#stop(long)}. Timers keep
+ * a count, total, maximum and a log2 histogram of durations in lock-free
+ * atomic counters, so recording never allocates or blocks. While disabled,
+ * start() returns 0 without reading the clock and stop() returns at once,
+ * leaving one volatile read and a branch per method.
+ */
+public final class ViewMetrics {
+
+    /**
+     * Histogram buckets: bucket 0 holds durations under 1us, bucket i
+     * holds [2^(i-1), 2^i) us, and the last bucket holds everything longer
+     */
+    public static final int BUCKET_COUNT = 18;
+
+    private static volatile boolean sEnabled;
+    private static final ArrayList<Timer> sTimers = new ArrayList<Timer>();
+
+    private ViewMetrics() { }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Start timestamp to pass to {@link Timer#stop(long)}, or 0 if
+     * metrics are disabled
+     */
+    public static long start() {
+        if (!sEnabled) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        return (now == 0L) ? 1L : now;
+    }
+
+    /**
+     * Create and register a timer; intended for static initializers
+     */
+    public static Timer timer(String name) {
+        Timer timer = new Timer(name);
+        synchronized (sTimers) {
+            sTimers.add(timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Current values of every registered timer
+     */
+    public static List<Snapshot> snapshot() {
+        synchronized (sTimers) {
+            ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>(sTimers.size());
+            for (int i=0; i < sTimers.size(); i++) {
+                snapshots.add(sTimers.get(i).snapshot());
+            }
+            return snapshots;
+        }
+    }
+
+    public static int getTimerCount() {
+        synchronized (sTimers) {
+            return sTimers.size();
+        }
+    }
+
+    /**
+     * Registered timer by index, for reading live values without taking a
+     * {@link #snapshot()}
+     */
+    public static Timer getTimer(int index) {
+        synchronized (sTimers) {
+            return sTimers.get(index);
+        }
+    }
+
+    public static void reset() {
+        synchronized (sTimers) {
+            for (int i=0; i < sTimers.size(); i++) {
+                sTimers.get(i).reset();
+            }
+        }
+    }
+
+    /**
+     * Put every timer back to the values from an earlier
+     * {@link #snapshot()}, e.g. after a check that had to start from zero.
+     * Timers registered since the snapshot are reset.
+     */
+    public static void restore(List<Snapshot> snapshots) {
+        synchronized (sTimers) {
+            //Timers are only ever appended, so snapshots line up by index
+            for (int i=0; i < sTimers.size(); i++) {
+                if (i < snapshots.size()) {
+                    sTimers.get(i).restore(snapshots.get(i));
+                } else {
+                    sTimers.get(i).reset();
+                }
+            }
+        }
+    }
+
+    public static final class Timer {
+        private final String mName;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private Timer(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getAverageNanos() {
+            long count = mCount.get();
+            return (count == 0) ? 0 : mTotalNanos.get() / count;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos.get();
+        }
+
+        /**
+         * Live equivalent of {@link Snapshot#getPercentileMicros(float)}
+         */
+        public long getPercentileMicros(float fraction) {
+            long target = (long) Math.ceil(mCount.get() * fraction);
+            long seen = 0;
+            for (int i=0; i < BUCKET_COUNT - 1; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return mMaxNanos.get() / 1000;
+        }
+
+        /**
+         * Record the time since start, a value from {@link ViewMetrics#start()}
+         */
+        public void stop(long start) {
+            if (start == 0L) {
+                return;
+            }
+            record(System.nanoTime() - start);
+        }
+
+        void record(long nanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+
+            long micros = nanos / 1000;
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+            mBuckets.incrementAndGet(bucket);
+        }
+
+        Snapshot snapshot() {
+            long[] buckets = new long[BUCKET_COUNT];
+            for (int i=0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return new Snapshot(mName, mCount.get(), mTotalNanos.get(), mMaxNanos.get(), buckets);
+        }
+
+        void reset() {
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            for (int i=0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+        }
+
+        void restore(Snapshot snapshot) {
+            mCount.set(snapshot.count);
+            mTotalNanos.set(snapshot.totalNanos);
+            mMaxNanos.set(snapshot.maxNanos);
+            for (int i=0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, snapshot.buckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Point-in-time copy of a timer. Counters are read individually, so
+     * values may be off by the calls in flight when it was taken.
+     */
+    public static final class Snapshot {
+        public final String name;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long[] buckets;
+
+        Snapshot(String name, long count, long totalNanos, long maxNanos, long[] buckets) {
+            this.name = name;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public long getAverageNanos() {
+            return (count == 0) ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Upper bound, in microseconds, of the bucket containing the given
+         * fraction (0-1) of recorded durations; for the last bucket this
+         * is the maximum recorded
+         */
+        public long getPercentileMicros(float fraction) {
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i=0; i < BUCKET_COUNT - 1; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return maxNanos / 1000;
+        }
+    }
+}
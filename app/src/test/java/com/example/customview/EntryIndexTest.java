@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EntryIndexTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private EntryIndex mIndex;
+    private Locale mDefaultLocale;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+        if (mIndex != null) {
+            mIndex.close();
+        }
+    }
+
+    private long[] query(String text) throws InterruptedException {
+        final long[][] result = new long[1][];
+        final CountDownLatch done = new CountDownLatch(1);
+        mIndex.query(text, new EntryIndex.OnSearchResultsListener() {
+            @Override
+            public void onSearchResults(long[] ids, int count) {
+                result[0] = Arrays.copyOf(ids, count);
+                done.countDown();
+            }
+        });
+        assertTrue("Query timed out", done.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    @Test
+    public void matchesWordPrefixesOfNameAndEmail() throws InterruptedException {
+        mIndex = new EntryIndex(EntryStore.UNBOUNDED, DIRECT_EXECUTOR);
+        mIndex.add(0, "Ada Lovelace", "ada@example.com");
+        mIndex.add(1, "Alan Turing", "alan@example.org");
+        mIndex.add(2, "Grace Hopper", "grace@navy.mil");
+
+        assertArrayEquals(new long[] {0, 1}, query("a"));
+        assertArrayEquals(new long[] {1}, query("TUR"));
+        assertArrayEquals(new long[] {0, 1}, query("example"));
+        assertArrayEquals(new long[] {0}, query("ada lov"));
+        assertArrayEquals(new long[] {2}, query("grace@navy"));
+        assertArrayEquals(new long[0], query("ada turing"));
+    }
+
+    @Test
+    public void matchingIgnoresDefaultLocale() throws InterruptedException {
+        //Lowercasing "I" in a Turkish locale gives a dotless i
+        Locale.setDefault(new Locale("tr", "TR"));
+        mIndex = new EntryIndex(EntryStore.UNBOUNDED, DIRECT_EXECUTOR);
+        mIndex.add(0, "IRIS", "INFO@EXAMPLE.COM");
+
+        assertArrayEquals(new long[] {0}, query("iris"));
+        assertArrayEquals(new long[] {0}, query("info"));
+    }
+
+    @Test
+    public void findsEntriesAcrossTailMerges() throws InterruptedException {
+        mIndex = new EntryIndex(EntryStore.UNBOUNDED, DIRECT_EXECUTOR);
+        for (int i=0; i < 2000; i++) {
+            mIndex.add(i, "name" + i, "user" + i + "@example.com");
+        }
+
+        assertArrayEquals(new long[] {1234}, query("name1234"));
+        long[] all = query("user");
+        assertEquals(1000, all.length);
+        //Only the newest results are kept
+        assertEquals(1000, all[0]);
+        assertEquals(1999, all[999]);
+    }
+
+    @Test
+    public void evictedEntriesAreNotFound() throws InterruptedException {
+        mIndex = new EntryIndex(100, DIRECT_EXECUTOR);
+        for (int i=0; i < 1000; i++) {
+            mIndex.add(i, "name" + i, "");
+        }
+
+        assertArrayEquals(new long[0], query("name5"));
+        assertArrayEquals(new long[] {950}, query("name950"));
+        assertEquals(100, query("name").length);
+    }
+
+    @Test
+    public void punctuationOnlyQueryIsEmpty() {
+        assertTrue(EntryIndex.isEmptyQuery(""));
+        assertTrue(EntryIndex.isEmptyQuery("  "));
+        assertTrue(EntryIndex.isEmptyQuery("@.-"));
+        assertFalse(EntryIndex.isEmptyQuery(" a "));
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntryLogTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private EntryLog mLog;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "entries.log");
+    }
+
+    @After
+    public void tearDown() {
+        if (mLog != null) {
+            mLog.close();
+        }
+    }
+
+    private EntryLog open(int retainCount) {
+        if (mLog != null) {
+            mLog.close();
+        }
+        mLog = new EntryLog(mFile, retainCount, DIRECT_EXECUTOR);
+        mLog.setBatchDelay(0);
+        return mLog;
+    }
+
+    private static void append(EntryLog log, int first, int count) {
+        for (int i=first; i < first + count; i++) {
+            log.append("name" + i, "email" + i);
+        }
+    }
+
+    @Test
+    public void appendedEntriesLoadInOrder() throws InterruptedException {
+        EntryLog log = open(100);
+        append(log, 0, 5);
+        log.append("n\u00e4me", "\u00e9mail");
+
+        PageCollector pages = PageCollector.load(log, 100);
+        assertEquals(6, pages.names.size());
+        for (int i=0; i < 5; i++) {
+            assertEquals("name" + i, pages.names.get(i));
+            assertEquals("email" + i, pages.emails.get(i));
+        }
+        assertEquals("n\u00e4me", pages.names.get(5));
+        assertEquals("\u00e9mail", pages.emails.get(5));
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws InterruptedException {
+        append(open(100), 0, 10);
+
+        PageCollector pages = PageCollector.load(open(100), 100);
+        assertEquals(10, pages.names.size());
+        assertEquals("name9", pages.names.get(9));
+    }
+
+    @Test
+    public void loadDeliversFixedSizePages() throws InterruptedException {
+        EntryLog log = open(100);
+        append(log, 0, 25);
+
+        PageCollector pages = PageCollector.load(log, 10);
+        assertEquals(3, pages.pageSizes.size());
+        assertEquals(10, (int) pages.pageSizes.get(0));
+        assertEquals(10, (int) pages.pageSizes.get(1));
+        assertEquals(5, (int) pages.pageSizes.get(2));
+        assertEquals("name0", pages.names.get(0));
+        assertEquals("name24", pages.names.get(24));
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException, InterruptedException {
+        append(open(100), 0, 3);
+        mLog.close();
+        mLog = null;
+        long intactLength = mFile.length();
+
+        //A record cut off mid-write: a name length with too few bytes after it
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[] {0, 10, 'n', 'a'});
+        } finally {
+            out.close();
+        }
+
+        EntryLog log = open(100);
+        PageCollector pages = PageCollector.load(log, 100);
+        assertEquals(3, pages.names.size());
+        assertEquals(intactLength, mFile.length());
+
+        //New records follow the last complete one
+        append(log, 3, 1);
+        pages = PageCollector.load(log, 100);
+        assertEquals(4, pages.names.size());
+        assertEquals("name3", pages.names.get(3));
+        assertEquals("email3", pages.emails.get(3));
+    }
+
+    @Test
+    public void foreignFileIsReplaced() throws IOException, InterruptedException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write("not a log".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        EntryLog log = open(100);
+        assertEquals(0, PageCollector.load(log, 100).names.size());
+        append(log, 0, 2);
+        assertEquals(2, PageCollector.load(log, 100).names.size());
+    }
+
+    @Test
+    public void loadIsCappedAtRetainCount() throws InterruptedException {
+        //Below the compaction threshold of twice the retained count
+        EntryLog log = open(10);
+        for (int i=0; i < 15; i++) {
+            log.append("name" + i, "email" + i);
+            PageCollector.load(log, 100);
+        }
+
+        PageCollector pages = PageCollector.load(log, 100);
+        assertEquals(10, pages.names.size());
+        assertEquals("name5", pages.names.get(0));
+        assertEquals("name14", pages.names.get(9));
+    }
+
+    @Test
+    public void compactionKeepsNewestEntries() throws InterruptedException {
+        EntryLog log = open(10);
+        append(log, 0, 15);
+        PageCollector.load(log, 100);
+        long uncompactedLength = mFile.length();
+
+        log.compact();
+        PageCollector pages = PageCollector.load(log, 100);
+        assertTrue(mFile.length() < uncompactedLength);
+        assertEquals(10, pages.names.size());
+        assertEquals("name5", pages.names.get(0));
+        assertEquals("name14", pages.names.get(9));
+        assertTrue(!new File(mFile.getPath() + ".tmp").exists());
+
+        pages = PageCollector.load(open(10), 100);
+        assertEquals(10, pages.names.size());
+        assertEquals("name5", pages.names.get(0));
+    }
+
+    @Test
+    public void logCompactsItselfAtTwiceRetainCount() throws InterruptedException {
+        EntryLog log = open(10);
+        append(log, 0, 20);
+        PageCollector.load(log, 100);
+        long compactedLength = mFile.length();
+
+        append(log, 20, 10);
+        PageCollector pages = PageCollector.load(log, 100);
+        assertEquals(10, pages.names.size());
+        assertEquals("name20", pages.names.get(0));
+        assertEquals(compactedLength, mFile.length());
+    }
+
+    @Test
+    public void appendAfterCloseIsRejected() {
+        EntryLog log = open(100);
+        log.close();
+        try {
+            log.append("name", "email");
+            fail("Append after close should throw");
+        } catch (IllegalStateException expected) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void closeWritesQueuedEntries() throws InterruptedException {
+        EntryLog log = open(100);
+        log.setBatchDelay(TimeUnit.HOURS.toMillis(1));
+        append(log, 0, 3);
+        log.close();
+
+        assertEquals(3, PageCollector.load(open(100), 100).names.size());
+    }
+
+    @Test
+    public void cancelledLoadDeliversNothing() throws InterruptedException {
+        append(open(100), 0, 5);
+        mLog.close();
+
+        //Hold callbacks back until the worker has finished the load
+        final List<Runnable> callbacks = new ArrayList<Runnable>();
+        mLog = new EntryLog(mFile, 100, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                synchronized (callbacks) {
+                    callbacks.add(command);
+                }
+            }
+        });
+        PageCollector collector = new PageCollector();
+        mLog.load(10, collector).cancel();
+        mLog.close();
+        mLog = null;
+
+        synchronized (callbacks) {
+            for (int i=0; i < callbacks.size(); i++) {
+                callbacks.get(i).run();
+            }
+        }
+        assertTrue(collector.names.isEmpty());
+        assertEquals(1, collector.mFinished.getCount());
+    }
+
+    private static class PageCollector implements EntryLog.OnPageLoadedListener {
+        final List<String> names = new ArrayList<String>();
+        final List<String> emails = new ArrayList<String>();
+        final List<Integer> pageSizes = new ArrayList<Integer>();
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+
+        static PageCollector load(EntryLog log, int pageSize) throws InterruptedException {
+            PageCollector collector = new PageCollector();
+            log.load(pageSize, collector);
+            assertTrue("Load timed out", collector.mFinished.await(10, TimeUnit.SECONDS));
+            return collector;
+        }
+
+        @Override
+        public void onPageLoaded(String[] names, String[] emails, int count) {
+            for (int i=0; i < count; i++) {
+                this.names.add(names[i]);
+                this.emails.add(emails[i]);
+            }
+            pageSizes.add(count);
+        }
+
+        @Override
+        public void onLoadFinished() {
+            mFinished.countDown();
+        }
+    }
+}
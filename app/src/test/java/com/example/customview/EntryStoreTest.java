@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EntryStoreTest {
+
+    @Test
+    public void keepsEntriesInOrderAndCopiesText() {
+        EntryStore store = new EntryStore();
+        StringBuilder name = new StringBuilder("Ada");
+        store.add(name, "ada@example.com");
+        name.setLength(0);
+        store.add("Grace", null);
+
+        assertEquals(2, store.size());
+        assertEquals("Ada", store.getName(0));
+        assertEquals("ada@example.com", store.getEmail(0));
+        assertEquals("Grace", store.getName(1));
+        assertEquals("", store.getEmail(1));
+    }
+
+    @Test
+    public void growsWhenUnbounded() {
+        EntryStore store = new EntryStore();
+        for (int i=0; i < 100; i++) {
+            store.add("name" + i, "email" + i);
+        }
+
+        assertEquals(100, store.size());
+        assertEquals("name0", store.getName(0));
+        assertEquals("email99", store.getEmail(99));
+    }
+
+    @Test
+    public void evictsOldestOnceFull() {
+        EntryStore store = new EntryStore(3);
+        for (int i=0; i < 5; i++) {
+            store.add("name" + i, "email" + i);
+        }
+
+        assertEquals(3, store.size());
+        assertEquals("name2", store.getName(0));
+        assertEquals("name4", store.getName(2));
+        assertEquals(5, store.getAddedCount());
+    }
+
+    @Test
+    public void growsUpToCapacityBeforeEvicting() {
+        EntryStore store = new EntryStore(40);
+        for (int i=0; i < 45; i++) {
+            store.add("name" + i, "email" + i);
+        }
+
+        assertEquals(40, store.size());
+        assertEquals("name5", store.getName(0));
+        assertEquals("email44", store.getEmail(39));
+    }
+
+    @Test
+    public void idsSurviveEviction() {
+        EntryStore store = new EntryStore(3);
+        for (int i=0; i < 5; i++) {
+            store.add("name" + i, "email" + i);
+        }
+
+        assertEquals(2, store.getId(0));
+        assertEquals(4, store.getId(2));
+        assertEquals(-1, store.getPosition(1));
+        assertEquals(0, store.getPosition(2));
+        assertEquals(2, store.getPosition(4));
+        assertEquals(-1, store.getPosition(5));
+    }
+
+    @Test
+    public void clearKeepsIdsUnique() {
+        EntryStore store = new EntryStore();
+        store.add("Ada", "ada@example.com");
+        store.add("Grace", "grace@example.com");
+        store.clear();
+
+        assertEquals(0, store.size());
+        store.add("Alan", "alan@example.com");
+        assertEquals(2, store.getId(0));
+        assertEquals("Alan", store.getName(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void positionOutsideStoreThrows() {
+        EntryStore store = new EntryStore(2);
+        store.add("Ada", "ada@example.com");
+        store.getName(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacityThrows() {
+        new EntryStore(-1);
+    }
+}
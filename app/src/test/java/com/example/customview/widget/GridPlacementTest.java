@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GridPlacementTest {
+
+    private static final int U = GridPlacement.UNSPECIFIED;
+
+    private static GridPlacement flowing(int columns, int rows, int children) {
+        GridPlacement placement = new GridPlacement(columns, rows);
+        placement.setChildCount(children);
+        for (int i=0; i < children; i++) {
+            placement.setRequest(i, U, U, 1, 1);
+        }
+        return placement;
+    }
+
+    @Test
+    public void flowsChildrenIntoCellsInFillOrder() {
+        GridPlacement placement = flowing(3, 3, 4);
+        assertTrue(placement.updatePlacement());
+
+        for (int cell=0; cell < 9; cell++) {
+            assertEquals(cell < 4 ? cell : U, placement.getOccupant(cell));
+        }
+    }
+
+    @Test
+    public void fixedChildrenClaimCellsBeforeFlow() {
+        GridPlacement placement = new GridPlacement(3, 3);
+        placement.setChildCount(2);
+        placement.setRequest(0, U, U, 1, 1);
+        placement.setRequest(1, 0, 0, 1, 1);
+        placement.updatePlacement();
+
+        assertEquals(1, placement.getOccupant(0));
+        assertEquals(0, placement.getOccupant(1));
+    }
+
+    @Test
+    public void spansCoverTheirCells() {
+        GridPlacement placement = new GridPlacement(3, 3);
+        placement.setChildCount(2);
+        placement.setRequest(0, U, U, 2, 2);
+        placement.setRequest(1, U, U, 1, 1);
+        placement.updatePlacement();
+        placement.setTrackSize(90);
+
+        assertEquals(0, placement.getOccupant(0));
+        assertEquals(0, placement.getOccupant(1));
+        assertEquals(0, placement.getOccupant(3));
+        assertEquals(0, placement.getOccupant(4));
+        //The next free cell in fill order is beside the span
+        assertEquals(1, placement.getOccupant(2));
+        assertEquals(0, placement.getCellLeft(0));
+        assertEquals(60, placement.getCellRight(0));
+        assertEquals(60, placement.getCellBottom(0));
+        assertEquals(60, placement.getCellLeft(1));
+    }
+
+    @Test
+    public void childOutsideTheGridIsRejected() {
+        GridPlacement placement = new GridPlacement(2, 2);
+        placement.setChildCount(1);
+        placement.setRequest(0, 2, 0, 1, 1);
+        try {
+            placement.updatePlacement();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            //Stays dirty so the next pass reports it again
+        }
+        placement.setRequest(0, 1, 0, 1, 1);
+        assertTrue(placement.updatePlacement());
+        assertEquals(0, placement.getOccupant(2));
+    }
+
+    @Test
+    public void fullGridRejectsExtraChild() {
+        GridPlacement placement = flowing(2, 2, 5);
+        try {
+            placement.updatePlacement();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void placementIsOnlyRebuiltWhenRequestsChange() {
+        GridPlacement placement = flowing(3, 3, 4);
+        assertTrue(placement.updatePlacement());
+        assertFalse(placement.updatePlacement());
+
+        placement.setRequest(2, U, U, 1, 1);
+        assertFalse(placement.updatePlacement());
+
+        //Too wide for the rest of the first row, so it wraps and child 3 backfills
+        placement.setRequest(2, U, U, 1, 2);
+        assertTrue(placement.updatePlacement());
+        assertEquals(3, placement.getOccupant(2));
+        assertEquals(2, placement.getOccupant(4));
+
+        placement.setChildCount(3);
+        assertTrue(placement.updatePlacement());
+        assertEquals(U, placement.getOccupant(2));
+    }
+
+    @Test
+    public void uniformTracksSplitSizeEvenly() {
+        GridPlacement placement = flowing(3, 3, 9);
+        placement.updatePlacement();
+        assertTrue(placement.setTrackSize(91));
+        assertFalse(placement.setTrackSize(91));
+
+        assertEquals(30, placement.getCellLeft(1));
+        assertEquals(60, placement.getCellTop(6));
+        assertEquals(90, placement.getCellRight(8));
+    }
+
+    @Test
+    public void weightedTracksFollowTheirWeights() {
+        GridPlacement placement = flowing(3, 1, 3);
+        placement.setColumnWeights(new float[] {1f, 2f, 1f});
+        placement.updatePlacement();
+        placement.setTrackSize(100);
+
+        assertEquals(25, placement.getCellLeft(1));
+        assertEquals(75, placement.getCellRight(1));
+        assertEquals(100, placement.getCellBottom(0));
+        assertEquals(0, placement.columnAt(24.9f));
+        assertEquals(1, placement.columnAt(25f));
+        assertEquals(2, placement.columnAt(99f));
+        assertEquals(U, placement.columnAt(100f));
+        assertEquals(U, placement.rowAt(-1f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightsMustMatchTrackCount() {
+        new GridPlacement(3, 3).setRowWeights(new float[] {1f, 1f});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightsMustBePositive() {
+        new GridPlacement(2, 2).setColumnWeights(new float[] {1f, 0f});
+    }
+
+    @Test
+    public void separatorsSkipTheInsideOfSpans() {
+        GridPlacement placement = new GridPlacement(2, 2);
+        placement.setChildCount(1);
+        placement.setRequest(0, U, U, 2, 2);
+        placement.updatePlacement();
+        placement.setTrackSize(10);
+
+        float[] lines = new float[placement.getMaxSeparatorFloats()];
+        //Only the outline: two vertical and two horizontal edges
+        assertEquals(4 * 4, placement.buildSeparators(lines));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2013 Wireless Designs, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.example.customview.widget;
+
+import android.text.TextPaint;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Paint getters return defaults on the JVM, so these cover the text and
+ * the TextPaint fields of the key; the rest of the paint state is read
+ * the same way on a device.
+ */
+public class TextLayoutCacheKeyTest {
+
+    private static TextLayoutCache.Key key(CharSequence text, TextPaint paint) {
+        TextLayoutCache.Key key = new TextLayoutCache.Key();
+        key.set(text, paint);
+        return key;
+    }
+
+    @Test
+    public void equalTextMatchesAcrossCharSequenceTypes() {
+        TextPaint paint = new TextPaint();
+        TextLayoutCache.Key stored = key("5 - 5", paint);
+        TextLayoutCache.Key lookup = key(new StringBuilder("5 - 5"), paint);
+
+        assertTrue(stored.equals(lookup));
+        assertTrue(lookup.equals(stored));
+        assertEquals(stored.hashCode(), lookup.hashCode());
+    }
+
+    @Test
+    public void differentTextDoesNotMatch() {
+        TextPaint paint = new TextPaint();
+
+        assertFalse(key("5 - 5", paint).equals(key("5 - 4", paint)));
+        assertFalse(key("5 - 5", paint).equals(key("5 - 55", paint)));
+    }
+
+    @Test
+    public void textPaintFieldsArePartOfTheKey() {
+        TextPaint paint = new TextPaint();
+        TextPaint highlighted = new TextPaint();
+        highlighted.bgColor = 0xFFFFFF00;
+        TextPaint shifted = new TextPaint();
+        shifted.baselineShift = 4;
+
+        assertFalse(key("5 - 5", paint).equals(key("5 - 5", highlighted)));
+        assertFalse(key("5 - 5", paint).equals(key("5 - 5", shifted)));
+    }
+
+    @Test
+    public void keyReflectsThePaintWhenSet() {
+        TextPaint paint = new TextPaint();
+        TextLayoutCache.Key stored = key("5 - 5", paint);
+        paint.bgColor = 0xFFFFFF00;
+
+        //Later changes to the paint do not reach a key that was already built
+        assertTrue(stored.equals(key("5 - 5", new TextPaint())));
+        assertFalse(stored.equals(key("5 - 5", paint)));
+    }
+}